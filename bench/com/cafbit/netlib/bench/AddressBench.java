@@ -0,0 +1,161 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cafbit.netlib.bench;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.cafbit.netlib.Address;
+
+/**
+ * A standalone benchmark of Address.hashCode() and compareTo() over a
+ * large dual-stack host table.  It is not part of the library; run it
+ * on a desktop JVM with the library classes on the classpath:
+ *
+ *   java -cp bin:bench-bin com.cafbit.netlib.bench.AddressBench [hosts]
+ *
+ * Each host has an IPv4 address, a SLAAC-style IPv6 address (a few
+ * shared /64 prefixes with random interface IDs), and a second IPv6
+ * address differing from another host's only in the prefix, which is
+ * where a hash over the low bits alone would collide.  For each kind
+ * of address the bucket distribution in a power-of-two table is
+ * reported next to what a uniform hash would give, followed by
+ * HashMap and sort timings.
+ * @author simmons
+ */
+public class AddressBench {
+
+    private static final int DEFAULT_HOSTS = 50000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int hosts = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_HOSTS;
+        Random random = new Random(42);
+
+        List<Address> v4 = new ArrayList<Address>(hosts);
+        List<Address> slaac = new ArrayList<Address>(hosts);
+        List<Address> prefixes = new ArrayList<Address>(hosts);
+        byte[] interfaceId = new byte[8];
+        for (int i=0; i<hosts; i++) {
+            v4.add(new Address(InetAddress.getByAddress(new byte[] {
+                10, (byte)(i >> 16), (byte)(i >> 8), (byte)i
+            })));
+
+            byte[] a = new byte[16];
+            a[0] = 0x20; a[1] = 0x01; a[2] = 0x0d; a[3] = (byte)0xb8;
+            a[7] = (byte)(i % 4);
+            random.nextBytes(interfaceId);
+            System.arraycopy(interfaceId, 0, a, 8, 8);
+            slaac.add(new Address(InetAddress.getByAddress(a)));
+
+            // same interface ID (::1) in a different /64 per host
+            byte[] b = new byte[16];
+            b[0] = 0x20; b[1] = 0x01; b[2] = 0x0d; b[3] = (byte)0xb8;
+            b[4] = (byte)(i >> 16); b[5] = (byte)(i >> 8); b[6] = (byte)i;
+            b[15] = 1;
+            prefixes.add(new Address(InetAddress.getByAddress(b)));
+        }
+        List<Address> all = new ArrayList<Address>(hosts*3);
+        all.addAll(v4);
+        all.addAll(slaac);
+        all.addAll(prefixes);
+
+        System.out.println("hosts: "+hosts+" ("+all.size()+" addresses)");
+        distribution("IPv4", v4);
+        distribution("IPv6, SLAAC", slaac);
+        distribution("IPv6, prefix only", prefixes);
+        distribution("dual-stack table", all);
+
+        for (int round=0; round<ROUNDS; round++) {
+            time(all, round == (ROUNDS-1));
+        }
+    }
+
+    /**
+     * Report how the hashes spread over a table with a load factor of
+     * 0.75, using HashMap's own bucket selection.
+     */
+    private static void distribution(String label, List<Address> addresses) {
+        int n = addresses.size();
+        int buckets = 1;
+        while (buckets * 3 < n * 4) {
+            buckets <<= 1;
+        }
+        int[] counts = new int[buckets];
+        for (Address address : addresses) {
+            int h = address.hashCode();
+            h ^= (h >>> 16);
+            counts[h & (buckets-1)]++;
+        }
+        int empty = 0;
+        int max = 0;
+        double chiSquare = 0;
+        double expected = (double)n / buckets;
+        for (int count : counts) {
+            if (count == 0) {
+                empty++;
+            }
+            max = Math.max(max, count);
+            chiSquare += (count - expected) * (count - expected) / expected;
+        }
+        System.out.println(String.format(
+            "%-20s buckets=%d empty=%.1f%% (uniform %.1f%%) max=%d chi2/buckets=%.3f (uniform ~1)",
+            label, buckets, 100.0 * empty / buckets, 100.0 * Math.exp(-expected),
+            max, chiSquare / buckets
+        ));
+    }
+
+    private static void time(List<Address> addresses, boolean report) {
+        List<Address> shuffled = new ArrayList<Address>(addresses);
+        Collections.shuffle(shuffled, new Random(7));
+
+        long start = System.nanoTime();
+        Map<Address,Address> map = new HashMap<Address,Address>(addresses.size()*2);
+        for (Address address : shuffled) {
+            map.put(address, address);
+        }
+        long put = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        int found = 0;
+        for (Address address : addresses) {
+            if (map.get(address) != null) {
+                found++;
+            }
+        }
+        long get = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        Collections.sort(shuffled);
+        long sort = System.nanoTime() - start;
+
+        if (report) {
+            int n = addresses.size();
+            System.out.println(String.format(
+                "HashMap put %.1f ns/op, get %.1f ns/op (%d found); sort %.1f ms",
+                (double)put / n, (double)get / n, found, sort / 1e6
+            ));
+        }
+    }
+
+}
@@ -21,17 +21,23 @@ import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.NetworkInterface;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import com.cafbit.netlib.MulticastReceiverThread;
 import com.cafbit.netlib.NetUtil;
+import com.cafbit.netlib.ipc.BatchCommand;
+import com.cafbit.netlib.ipc.Coalescable;
 import com.cafbit.netlib.ipc.Command;
 import com.cafbit.netlib.ipc.CommandListener;
 import com.cafbit.netlib.ipc.DatagramCommand;
 import com.cafbit.netlib.ipc.ErrorCommand;
 import com.cafbit.netlib.ipc.CommandHandler;
 import com.cafbit.netlib.ipc.QuitCommand;
+import com.cafbit.netlib.metrics.Metrics;
 
 import android.content.Context;
 import android.net.wifi.WifiManager.MulticastLock;
@@ -44,20 +50,33 @@ import android.util.Log;
  * and processing incoming mDNS packets.
  * @author simmons
  */
-public abstract class AbstractDatagramManagerThread extends Thread implements CommandListener,NetworkManagerThread {
+public abstract class AbstractDatagramManagerThread extends Thread implements CommandListener,NetworkManagerThread,NetworkWatcher.Listener {
 
     public static final String TAG = NetUtil.TAG;
     
     private static final String MULTICAST_LOCK_NAME = "cafbit";
     
     protected CommandHandler handler;
+    private Context context;
     private NetUtil netUtil;
-    private NetworkInterface networkInterface;
+    private NetworkWatcher networkWatcher;
+    private volatile NetworkInterface networkInterface;
     protected CommandHandler upstreamHandler;
+    private Metrics metrics = new Metrics();
     
     private List<ReceiverThread> receiverThreads =
         new LinkedList<ReceiverThread>();
     
+    // upstream batching.  the batch is only touched on this thread.
+    private volatile long upstreamFlushInterval = 0;
+    private volatile int upstreamMaxBatchSize = 0;
+    private Map<Object,Command> upstreamBatch = new LinkedHashMap<Object,Command>();
+    private Runnable upstreamFlushTask = new Runnable() {
+        public void run() {
+            flushUpstream();
+        }
+    };
+    
     /**
      * Construct the network thread.
      * @param activity
@@ -65,6 +84,7 @@ public abstract class AbstractDatagramManagerThread extends Thread implements Co
     public AbstractDatagramManagerThread(String threadName, Context context, CommandHandler upstreamHandler) {
         super(threadName);
         this.upstreamHandler = upstreamHandler;
+        this.context = context;
         netUtil = new NetUtil(context);
     }
     
@@ -86,7 +106,7 @@ public abstract class AbstractDatagramManagerThread extends Thread implements Co
         // initialize the network
         try {
             networkInterface = netUtil.getFirstWifiOrEthernetInterface();
-            System.out.println("MY NETWORK INTERFACE: "+networkInterface);
+            NetLog.log(NetLog.DEBUG, "manager.interface", String.valueOf(networkInterface));
             if (networkInterface == null) {
                 throw new IOException("Your WiFi is not enabled.");
             }
@@ -95,6 +115,11 @@ public abstract class AbstractDatagramManagerThread extends Thread implements Co
             return;
         }
         
+        // set up the IPC.  this is done before init(), so receiver
+        // threads created there can find our handler.
+        Looper.prepare();
+        this.handler = new CommandHandler(this);
+        
         // Allow the subclass to perform initialization.
         // The subclass is expected to create receiver threads in its
         // init() method.
@@ -105,10 +130,6 @@ public abstract class AbstractDatagramManagerThread extends Thread implements Co
             return;
         }
         
-        // set up the IPC
-        Looper.prepare();
-        this.handler = new CommandHandler(this);
-        
         // do any receiver threads use multicast?
         for (ReceiverThread thread : receiverThreads) {
             if (thread instanceof MulticastReceiverThread) {
@@ -128,15 +149,22 @@ public abstract class AbstractDatagramManagerThread extends Thread implements Co
             thread.start();
         }
         
+        // listen for network changes
+        networkWatcher = new NetworkWatcher(context, netUtil, handler, this);
+        networkWatcher.start();
+        
         // allow handlers to perform any last-minute initialization
         beforeLoop();
         
         // loop!
         Looper.loop();
-        System.out.println("QUITING MANAGER THREAD");
+        NetLog.log(NetLog.DEBUG, "manager.quit", getName());
 
         // allow handlers to perform any cleanup
         afterLoop();
+        flushUpstream();
+        
+        networkWatcher.stop();
 
         // stop child threads
         for (ReceiverThread thread : receiverThreads) {
@@ -156,9 +184,62 @@ public abstract class AbstractDatagramManagerThread extends Thread implements Co
     protected void beforeLoop() {}
     protected void afterLoop() {}
     
+    /**
+     * Called on this thread when the network watcher detects a change
+     * in the network configuration.  The receiver threads are moved to
+     * the current wifi/ethernet interface in place, so the manager and
+     * any state it has accumulated survive the change.  Subclasses which
+     * override this should call super.onNetworkChange().
+     */
+    public void onNetworkChange(List<InterfaceInfo> interfaces) {
+        NetworkInterface newInterface = null;
+        for (InterfaceInfo ii : interfaces) {
+            if (ii.isWifi() || ii.isWired()) {
+                newInterface = ii.getNetworkInterface();
+                break;
+            }
+        }
+        if (newInterface == null) {
+            // keep the existing bindings until an interface returns.
+            Log.v(TAG, "network change: no wifi/ethernet interface available");
+            return;
+        }
+        Log.v(TAG, "network change: using interface "+newInterface.getName());
+        networkInterface = newInterface;
+        for (ReceiverThread thread : receiverThreads) {
+            try {
+                thread.rebind(newInterface);
+            } catch (IOException e) {
+                // errors are not batched, but must not overtake earlier events
+                flushUpstream();
+                upstreamHandler.error("cannot rebind to network interface", e);
+            }
+        }
+    }
+    
     protected abstract void init() throws IOException;
     protected abstract void handleIncoming(DatagramSocket socket, DatagramPacket response);
     
+    /**
+     * Handle a packet entry produced by a receiver thread (such as
+     * an MDNSPacketEntry).  The default implementation does nothing.
+     */
+    protected void handlePacketEntry(PacketEntry packetEntry) {}
+    
+    /**
+     * Handle a record change reported by a receiver thread in delta
+     * mode (see MDNSReceiverThread.setDeltaMode()).  The default
+     * implementation forwards the event to the upstream handler with
+     * sendUpstream(), so if upstream batching is enabled it is batched,
+     * and coalesced with other events about the same record (see
+     * setUpstreamBatching()).  Subclasses which override this should
+     * call super.handleRecordEvent(), or sendUpstream() themselves, if
+     * the events are still to be passed upstream.
+     */
+    protected void handleRecordEvent(RecordEvent event) {
+        sendUpstream(event);
+    }
+    
     //
     
     protected void addReceiverThread(ReceiverThread receiverThread) {
@@ -180,6 +261,87 @@ public abstract class AbstractDatagramManagerThread extends Thread implements Co
     public NetworkInterface getNetworkInterface() {
         return networkInterface;
     }
+    public NetworkWatcher getNetworkWatcher() {
+        return networkWatcher;
+    }
+    public Metrics getMetrics() {
+        return metrics;
+    }
+    
+    ////////////////////////////////////////////////////////////
+    // upstream batching
+    ////////////////////////////////////////////////////////////
+    
+    /**
+     * Batch the commands passed to sendUpstream(), so that a flood of
+     * events wakes the upstream thread once per batch rather than once
+     * per event.  A batch is delivered as a single BatchCommand when
+     * flushIntervalMillis has passed since its first command, or as
+     * soon as it holds maxBatchSize commands.  Within a batch,
+     * Coalescable commands with the same key (such as RecordEvents
+     * about the same record) are merged into their net effect.
+     * An interval of zero (the default) disables batching, and a
+     * maxBatchSize of zero leaves the batch size unlimited.
+     */
+    public void setUpstreamBatching(long flushIntervalMillis, int maxBatchSize) {
+        this.upstreamMaxBatchSize = maxBatchSize;
+        this.upstreamFlushInterval = flushIntervalMillis;
+    }
+    
+    /**
+     * Send a command to the upstream handler, through the batch if
+     * batching is enabled.  This must be called on this thread.
+     */
+    protected void sendUpstream(Command command) {
+        if (upstreamFlushInterval <= 0) {
+            flushUpstream();
+            upstreamHandler.sendCommand(command);
+            return;
+        }
+        if (upstreamBatch.isEmpty()) {
+            handler.postDelayed(upstreamFlushTask, upstreamFlushInterval);
+        }
+        if (command instanceof Coalescable) {
+            Object key = ((Coalescable)command).getCoalesceKey();
+            Command earlier = upstreamBatch.get(key);
+            if (earlier == null) {
+                upstreamBatch.put(key, command);
+            } else {
+                Command merged = ((Coalescable)command).coalesce(earlier);
+                if (merged == null) {
+                    upstreamBatch.remove(key);
+                    if (upstreamBatch.isEmpty()) {
+                        // the next command will schedule a new flush
+                        handler.removeCallbacks(upstreamFlushTask);
+                    }
+                } else {
+                    // keeps the position of the earlier command
+                    upstreamBatch.put(key, merged);
+                }
+            }
+        } else {
+            upstreamBatch.put(new Object(), command);
+        }
+        if ((upstreamMaxBatchSize > 0) && (upstreamBatch.size() >= upstreamMaxBatchSize)) {
+            flushUpstream();
+        }
+    }
+    
+    /**
+     * Deliver the current batch upstream, if there is one.
+     */
+    protected void flushUpstream() {
+        if (upstreamBatch.isEmpty()) {
+            return;
+        }
+        handler.removeCallbacks(upstreamFlushTask);
+        if (upstreamBatch.size() == 1) {
+            upstreamHandler.sendCommand(upstreamBatch.values().iterator().next());
+        } else {
+            upstreamHandler.sendCommand(new BatchCommand(new ArrayList<Command>(upstreamBatch.values())));
+        }
+        upstreamBatch.clear();
+    }
     
     ////////////////////////////////////////////////////////////
     // inter-process communication
@@ -190,8 +352,29 @@ public abstract class AbstractDatagramManagerThread extends Thread implements Co
             Looper.myLooper().quit();
         } else if (command instanceof DatagramCommand) {
             DatagramCommand datagramCommand = (DatagramCommand)command;
+            long start = System.nanoTime();
+            metrics.queueWaitTime.record(start - datagramCommand.getTimestamp());
             handleIncoming(datagramCommand.getSocket(), datagramCommand.getDatagramPacket());
+            metrics.handleTime.recordSince(start);
+        } else if (command instanceof PacketEntry) {
+            PacketEntry packetEntry = (PacketEntry)command;
+            long start = System.nanoTime();
+            metrics.queueWaitTime.record(start - packetEntry.timestamp);
+            handlePacketEntry(packetEntry);
+            metrics.handleTime.recordSince(start);
+        } else if (command instanceof RecordEvent) {
+            RecordEvent event = (RecordEvent)command;
+            long start = System.nanoTime();
+            metrics.queueWaitTime.record(start - event.timestamp);
+            handleRecordEvent(event);
+            metrics.handleTime.recordSince(start);
+        } else if (command instanceof BatchCommand) {
+            for (Command batched : ((BatchCommand)command).getCommands()) {
+                onCommand(batched);
+            }
         } else if (command instanceof ErrorCommand) {
+            // errors are not batched, but must not overtake earlier events
+            flushUpstream();
             ErrorCommand errorCommand = (ErrorCommand)command;
             if (errorCommand.getMessage() == null) {
                 upstreamHandler.error(errorCommand.getThrowable());
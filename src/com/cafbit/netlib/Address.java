@@ -28,8 +28,8 @@ public class Address implements Comparable<Address> {
     
     private InetAddress inetAddress;
     private InterfaceInfo interfaceInfo;
+    private CompactAddress compactAddress;
     private int version;
-    private long prefix; // consider this to be 32-bit unsigned.
     private boolean isPrivate = false;
     private boolean isMulticast = false;
     private boolean isLoopback = false;
@@ -53,105 +53,18 @@ public class Address implements Comparable<Address> {
         this.interfaceInfo = interfaceInfo;
     }
     
-    private boolean testPrefix(long network, int netmaskBits) {
-        long mask = ((~(0xFFFFFFFFL >> netmaskBits)) & 0xFFFFFFFFL);
-        return ((prefix & mask) == (network & mask));
-    }
-    
     private void study() {
-        // family
-        if (inetAddress instanceof Inet4Address) {
-            version = 4;
-        } else if (inetAddress instanceof Inet6Address) {
-            version = 6;
-        } else {
-            version = 0;
-        }
+        // the full 128-bit value, which also determines the family
+        compactAddress = CompactAddress.of(inetAddress);
+        version = compactAddress.getVersion();
         
-        // prefix (for simple numeric comparison purposes) --
-        // use the most significant 32 bits, regardless
-        // of the address family.
-        byte[] bytes = inetAddress.getAddress();
-        if (bytes.length >= 4) {
-            prefix =
-                (((int)(bytes[0] & 0xFF)) << 24) |
-                (((int)(bytes[1] & 0xFF)) << 16) |
-                (((int)(bytes[2] & 0xFF)) << 8) |
-                ((int)(bytes[3] & 0xFF));
-        }
-        
-        if (version == 4) {
-            
-            // private
-            if (testPrefix(0x0A000000, 8) ||
-                testPrefix(0xAC100000, 12) ||
-                testPrefix(0xC0A80000, 16)
-            ) {
-                isPrivate = true;
-            }
-            
-            // multicast
-            if (testPrefix(0xE0000000, 4)) {
-                isMulticast = true;
-            }
-            
-            // loopback
-            if (testPrefix(0x7F000000, 8)) {
-                isLoopback = true;
-            }
-            
-            // link-local
-            if (testPrefix(0xA9FE0000, 16)) {
-                // the first and last network within this
-                // prefix are not considered link-local.
-                int octet = (int)((prefix>>8) & 0xFF);
-                if (octet > 0 && octet < 255) {
-                    isLinkLocal = true;
-                }
-            }
-            
-        } else if (version == 6) {
-            
-            // private
-            if (testPrefix(0xFC000000, 7)) {
-                isPrivate = true;
-            }
-            
-            // multicast
-            if (testPrefix(0xFF000000, 8)) {
-                isMulticast = true;
-            }
-            
-            // loopback
-            isLoopback = true;
-            for (int i=0; i<bytes.length; i++) {
-                if (i != 15) {
-                    if (bytes[i] != 0) {
-                        isLoopback = false;
-                        break;
-                    }
-                } else {
-                    if (bytes[i] != 1) {
-                        isLoopback = false;
-                        break;
-                    }                   
-                }
-            }
-            
-            // link-local
-            if (testPrefix(0xFE800000, 10)) {
-                isLinkLocal = true;
-            }
-        }
-        
-        // any
-        isAny = true;
-        for (int i=0; i<bytes.length; i++) {
-            if (bytes[i] != 0) {
-                isAny = false;
-                break;
-            }
-        }
+        // classify by longest-prefix match
+        int flags = AddressClassifier.getDefault().classify(compactAddress);
+        isPrivate = ((flags & AddressClassifier.CLASS_PRIVATE) != 0);
+        isMulticast = ((flags & AddressClassifier.CLASS_MULTICAST) != 0);
+        isLoopback = ((flags & AddressClassifier.CLASS_LOOPBACK) != 0);
+        isLinkLocal = ((flags & AddressClassifier.CLASS_LINK_LOCAL) != 0);
+        isAny = ((flags & AddressClassifier.CLASS_ANY) != 0);
         
         // ethernet
         if (interfaceInfo != null) {
@@ -198,6 +111,10 @@ public class Address implements Comparable<Address> {
         return inetAddress;
     }
     
+    public CompactAddress getCompactAddress() {
+        return compactAddress;
+    }
+    
     public String getIPAddress() {
         return inetAddress.getHostAddress();
     }
@@ -314,32 +231,19 @@ public class Address implements Comparable<Address> {
             return -1;
         }
 
-        // numerical comparison
-        byte[] b1 = this.inetAddress.getAddress();
-        byte[] b2 = other.inetAddress.getAddress();
-        if (b1.length < b2.length) {
-            return -1;
-        } else if (b1.length > b2.length) {
-            return +1;
-        } else {
-            for (int i=0; i<b1.length; i++) {
-                int i1 = (int)(b1[i] & 0xFF);
-                int i2 = (int)(b2[i] & 0xFF);
-                if (i1 < i2) {
-                    return -1;
-                } else if (i1 > i2) {
-                    return +1;
-                }
-            }
-        }
-        return 0; // equality
+        // numerical comparison over the full 128 bits
+        return this.compactAddress.compareTo(other.compactAddress);
     }
 
     // equality
     
+    /**
+     * Hash all 128 bits of the address, so IPv6 addresses sharing a
+     * common prefix still spread evenly across hash tables.
+     */
     @Override
     public int hashCode() {
-        return inetAddress.hashCode();
+        return compactAddress.hashCode();
     }
 
     @Override
@@ -347,7 +251,7 @@ public class Address implements Comparable<Address> {
         if (! (other instanceof Address)) {
             return false;
         }
-        return this.inetAddress.equals(((Address)other).inetAddress);
+        return this.compactAddress.equals(((Address)other).compactAddress);
     }
     
 }
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cafbit.netlib;
+
+import java.net.InetAddress;
+
+/**
+ * Classify IP addresses (private, link-local, multicast, etc.) by
+ * longest-prefix match against a table of address ranges.  The
+ * classification of an address is a bitmask of the CLASS_* flags;
+ * applications may define their own site ranges using flags from
+ * CLASS_USER upward.
+ *
+ * A classifier is not thread-safe while ranges are being added.
+ * The default classifier is fully built before it is published.
+ * @author simmons
+ */
+public class AddressClassifier {
+
+    public static final int CLASS_PRIVATE    = 1<<0;
+    public static final int CLASS_LINK_LOCAL = 1<<1;
+    public static final int CLASS_MULTICAST  = 1<<2;
+    public static final int CLASS_LOOPBACK   = 1<<3;
+    public static final int CLASS_ANY        = 1<<4;
+    /** the first flag available for application-defined ranges */
+    public static final int CLASS_USER       = 1<<8;
+
+    private static final AddressClassifier defaultClassifier = new AddressClassifier();
+
+    private PrefixTrie trie = new PrefixTrie();
+
+    /**
+     * Construct a classifier which knows the standard IPv4 and IPv6
+     * special-purpose ranges.
+     */
+    public AddressClassifier() {
+        // IPv4
+        addIPv4Range(0x0A000000, 8, CLASS_PRIVATE);
+        addIPv4Range(0xAC100000, 12, CLASS_PRIVATE);
+        addIPv4Range(0xC0A80000, 16, CLASS_PRIVATE);
+        addIPv4Range(0xE0000000, 4, CLASS_MULTICAST);
+        addIPv4Range(0x7F000000, 8, CLASS_LOOPBACK);
+        addIPv4Range(0xA9FE0000, 16, CLASS_LINK_LOCAL);
+        // the first and last network within 169.254/16 are
+        // not considered link-local.
+        trie.put(CompactAddress.MAPPED_HI, CompactAddress.mapped(0xA9FE0000), 96+24, 0);
+        trie.put(CompactAddress.MAPPED_HI, CompactAddress.mapped(0xA9FEFF00), 96+24, 0);
+        addIPv4Range(0x00000000, 32, CLASS_ANY);
+
+        // IPv6
+        addIPv6Range(0xFC00000000000000L, 0L, 7, CLASS_PRIVATE);
+        addIPv6Range(0xFF00000000000000L, 0L, 8, CLASS_MULTICAST);
+        addIPv6Range(0xFE80000000000000L, 0L, 10, CLASS_LINK_LOCAL);
+        addIPv6Range(0L, 1L, 128, CLASS_LOOPBACK);
+        addIPv6Range(0L, 0L, 128, CLASS_ANY);
+    }
+
+    public static AddressClassifier getDefault() {
+        return defaultClassifier;
+    }
+
+    /**
+     * Add an IPv4 range.  The flags are combined with those of any
+     * enclosing range already present, so a site range within
+     * 10.0.0.0/8 remains private.  (A longer prefix always wins, so
+     * enclosing ranges should be added before the ranges within them.)
+     */
+    public void addIPv4Range(int network, int prefixLength, int flags) {
+        if ((prefixLength < 0) || (prefixLength > 32)) {
+            throw new IllegalArgumentException("bad prefix length: "+prefixLength);
+        }
+        addRange(CompactAddress.MAPPED_HI, CompactAddress.mapped(network), 96+prefixLength, flags);
+    }
+
+    /**
+     * Add an IPv6 range.  See addIPv4Range() regarding flags.
+     */
+    public void addIPv6Range(long hi, long lo, int prefixLength, int flags) {
+        addRange(hi, lo, prefixLength, flags);
+    }
+
+    /**
+     * Add a range of either family, given the network address.
+     */
+    public void addRange(InetAddress network, int prefixLength, int flags) {
+        CompactAddress ca = CompactAddress.of(network);
+        if (ca.isIPv4()) {
+            addIPv4Range(ca.getIPv4(), prefixLength, flags);
+        } else {
+            addIPv6Range(ca.getHigh(), ca.getLow(), prefixLength, flags);
+        }
+    }
+
+    private void addRange(long hi, long lo, int prefixLength, int flags) {
+        int enclosing = trie.lookup(hi, lo, prefixLength, 0);
+        trie.put(hi, lo, prefixLength, enclosing | flags);
+    }
+
+    // classification
+
+    public int classify(long hi, long lo) {
+        return trie.lookup(hi, lo, 0);
+    }
+
+    public int classifyIPv4(int address) {
+        return trie.lookup(CompactAddress.MAPPED_HI, CompactAddress.mapped(address), 0);
+    }
+
+    public int classify(CompactAddress address) {
+        return trie.lookup(address.getHigh(), address.getLow(), 0);
+    }
+
+    public int classify(InetAddress address) {
+        return classify(CompactAddress.of(address));
+    }
+
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cafbit.netlib;
+
+import java.net.InetAddress;
+import java.util.Collection;
+
+/**
+ * An immutable set of IP addresses stored as primitives: IPv4
+ * addresses as ints, and IPv6 addresses as pairs of longs.  Lookups
+ * use open addressing over flat arrays, so testing membership does
+ * not box, hash, or allocate anything beyond the address bytes
+ * themselves.
+ *
+ * This is used to recognize our own transmissions on the receive
+ * path, so it is rebuilt (not modified) whenever the set of local
+ * addresses changes, and then swapped in as a whole.
+ * @author simmons
+ */
+public final class AddressSet {
+
+    public static final AddressSet EMPTY = new AddressSet(null);
+
+    private final int[] table4;
+    private final boolean[] used4;
+    private final long[] table6; // hi,lo pairs
+    private final boolean[] used6;
+    private final int mask4;
+    private final int mask6;
+    private final int size;
+
+    public AddressSet(Collection<InetAddress> addresses) {
+        int count4 = 0;
+        int count6 = 0;
+        if (addresses != null) {
+            for (InetAddress address : addresses) {
+                if (address.getAddress().length == 4) {
+                    count4++;
+                } else {
+                    count6++;
+                }
+            }
+        }
+
+        // keep the load factor at or below 1/2
+        int capacity4 = tableSize(count4);
+        int capacity6 = tableSize(count6);
+        table4 = new int[capacity4];
+        used4 = new boolean[capacity4];
+        table6 = new long[capacity6*2];
+        used6 = new boolean[capacity6];
+        mask4 = capacity4 - 1;
+        mask6 = capacity6 - 1;
+
+        int n = 0;
+        if (addresses != null) {
+            for (InetAddress address : addresses) {
+                if (add(address.getAddress())) {
+                    n++;
+                }
+            }
+        }
+        size = n;
+    }
+
+    private static int tableSize(int count) {
+        int capacity = 4;
+        while (capacity < count*2) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private boolean add(byte[] bytes) {
+        if (bytes.length == 4) {
+            int v = toInt(bytes, 0);
+            int i = mix(v) & mask4;
+            while (used4[i]) {
+                if (table4[i] == v) {
+                    return false;
+                }
+                i = (i+1) & mask4;
+            }
+            used4[i] = true;
+            table4[i] = v;
+            return true;
+        } else if (bytes.length == 16) {
+            long hi = toLong(bytes, 0);
+            long lo = toLong(bytes, 8);
+            int i = mix(hi, lo) & mask6;
+            while (used6[i]) {
+                if ((table6[i*2] == hi) && (table6[i*2+1] == lo)) {
+                    return false;
+                }
+                i = (i+1) & mask6;
+            }
+            used6[i] = true;
+            table6[i*2] = hi;
+            table6[i*2+1] = lo;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Test membership.  Note that InetAddress.getAddress() returns a
+     * copy of the address bytes, so this allocates a small array per
+     * call; callers which already have the raw address should use
+     * contains(byte[]), contains4(), or contains6().  (The hash code of
+     * an Inet4Address is not the address on all platforms, so it can't
+     * be used instead.)
+     */
+    public boolean contains(InetAddress address) {
+        if (address == null) {
+            return false;
+        }
+        return contains(address.getAddress());
+    }
+
+    public boolean contains(byte[] bytes) {
+        if (bytes.length == 4) {
+            return contains4(toInt(bytes, 0));
+        } else if (bytes.length == 16) {
+            return contains6(toLong(bytes, 0), toLong(bytes, 8));
+        }
+        return false;
+    }
+
+    public boolean contains4(int v) {
+        int i = mix(v) & mask4;
+        while (used4[i]) {
+            if (table4[i] == v) {
+                return true;
+            }
+            i = (i+1) & mask4;
+        }
+        return false;
+    }
+
+    public boolean contains6(long hi, long lo) {
+        int i = mix(hi, lo) & mask6;
+        while (used6[i]) {
+            if ((table6[i*2] == hi) && (table6[i*2+1] == lo)) {
+                return true;
+            }
+            i = (i+1) & mask6;
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // private static utility methods
+
+    private static int mix(int v) {
+        v *= 0x9E3779B9;
+        return v ^ (v >>> 16);
+    }
+
+    private static int mix(long hi, long lo) {
+        long v = (hi * 0x9E3779B97F4A7C15L) ^ lo;
+        v *= 0xC2B2AE3D27D4EB4FL;
+        return (int)(v ^ (v >>> 32));
+    }
+
+    private static int toInt(byte[] b, int i) {
+        return (b[i]&0xFF)<<24 | (b[i+1]&0xFF)<<16 | (b[i+2]&0xFF)<<8 | (b[i+3]&0xFF);
+    }
+
+    private static long toLong(byte[] b, int i) {
+        return ((long)toInt(b, i) << 32) | (toInt(b, i+4) & 0xFFFFFFFFL);
+    }
+
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cafbit.netlib;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * An immutable IP address held as a 128-bit value in two longs.
+ * IPv4 addresses are stored in their IPv4-mapped IPv6 form
+ * (::ffff:a.b.c.d), so both families share one numeric space and
+ * can be classified by the same prefix trie.
+ * @author simmons
+ */
+public final class CompactAddress implements Comparable<CompactAddress> {
+
+    /** the upper 64 bits of an IPv4-mapped address */
+    public static final long MAPPED_HI = 0L;
+    /** the mask of the ::ffff:0:0/96 prefix within the lower 64 bits */
+    public static final long MAPPED_LO = 0x0000FFFF00000000L;
+
+    private final long hi;
+    private final long lo;
+    private final int version;
+
+    private CompactAddress(long hi, long lo, int version) {
+        this.hi = hi;
+        this.lo = lo;
+        this.version = version;
+    }
+
+    public static CompactAddress of(InetAddress inetAddress) {
+        return of(inetAddress.getAddress());
+    }
+
+    public static CompactAddress of(byte[] bytes) {
+        if (bytes.length == 4) {
+            return new CompactAddress(MAPPED_HI, mapped(toInt(bytes, 0)), 4);
+        } else if (bytes.length == 16) {
+            return new CompactAddress(toLong(bytes, 0), toLong(bytes, 8), 6);
+        } else {
+            throw new IllegalArgumentException("bad address length: "+bytes.length);
+        }
+    }
+
+    public static CompactAddress ofIPv4(int address) {
+        return new CompactAddress(MAPPED_HI, mapped(address), 4);
+    }
+
+    public static CompactAddress ofIPv6(long hi, long lo) {
+        return new CompactAddress(hi, lo, 6);
+    }
+
+    /**
+     * Return the lower 64 bits of the IPv4-mapped form of the
+     * given IPv4 address.
+     */
+    public static long mapped(int address) {
+        return MAPPED_LO | (address & 0xFFFFFFFFL);
+    }
+
+    // getters
+
+    public long getHigh() {
+        return hi;
+    }
+
+    public long getLow() {
+        return lo;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public boolean isIPv4() {
+        return (version == 4);
+    }
+
+    public boolean isIPv6() {
+        return (version == 6);
+    }
+
+    /**
+     * Return the IPv4 address as an int.  Only meaningful for
+     * IPv4 addresses.
+     */
+    public int getIPv4() {
+        return (int)lo;
+    }
+
+    public byte[] getBytes() {
+        if (version == 4) {
+            byte[] bytes = new byte[4];
+            putInt(bytes, 0, (int)lo);
+            return bytes;
+        } else {
+            byte[] bytes = new byte[16];
+            putInt(bytes, 0, (int)(hi>>>32));
+            putInt(bytes, 4, (int)hi);
+            putInt(bytes, 8, (int)(lo>>>32));
+            putInt(bytes, 12, (int)lo);
+            return bytes;
+        }
+    }
+
+    public InetAddress toInetAddress() {
+        try {
+            return InetAddress.getByAddress(getBytes());
+        } catch (UnknownHostException e) {
+            // cannot happen with a 4- or 16-byte address
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // comparison and equality
+
+    /**
+     * Compare by address family, so IPv4 addresses sort before IPv6
+     * addresses (as in Address.compareTo()), and then numerically,
+     * treating the 128-bit value as unsigned.  This is consistent with
+     * equals(), which also distinguishes the families.
+     */
+    public int compareTo(CompactAddress other) {
+        if (this.version != other.version) {
+            return (this.version < other.version) ? -1 : +1;
+        }
+        int c = compareUnsigned(this.hi, other.hi);
+        if (c != 0) {
+            return c;
+        }
+        return compareUnsigned(this.lo, other.lo);
+    }
+
+    public static int compareUnsigned(long a, long b) {
+        a += Long.MIN_VALUE;
+        b += Long.MIN_VALUE;
+        return (a < b) ? -1 : ((a == b) ? 0 : +1);
+    }
+
+    @Override
+    public int hashCode() {
+        long v = (hi * 0x9E3779B97F4A7C15L) ^ lo;
+        v *= 0xC2B2AE3D27D4EB4FL;
+        return (int)(v ^ (v >>> 32));
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (! (other instanceof CompactAddress)) {
+            return false;
+        }
+        CompactAddress o = (CompactAddress)other;
+        return (hi == o.hi) && (lo == o.lo) && (version == o.version);
+    }
+
+    public String toString() {
+        return toInetAddress().getHostAddress();
+    }
+
+    // private static utility methods
+
+    private static int toInt(byte[] b, int i) {
+        return (b[i]&0xFF)<<24 | (b[i+1]&0xFF)<<16 | (b[i+2]&0xFF)<<8 | (b[i+3]&0xFF);
+    }
+
+    private static long toLong(byte[] b, int i) {
+        return ((long)toInt(b, i) << 32) | (toInt(b, i+4) & 0xFFFFFFFFL);
+    }
+
+    private static void putInt(byte[] b, int i, int v) {
+        b[i] = (byte)(v>>>24);
+        b[i+1] = (byte)(v>>>16);
+        b[i+2] = (byte)(v>>>8);
+        b[i+3] = (byte)v;
+    }
+
+}
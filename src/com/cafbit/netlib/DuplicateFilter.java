@@ -0,0 +1,122 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cafbit.netlib;
+
+/**
+ * Recognizes datagrams which were already received a moment ago, such
+ * as a response arriving over both IPv4 and IPv6, or over both WiFi and
+ * ethernet.  Each datagram is reduced to a 64-bit hash of its payload
+ * and source port, and looked up in a fixed-size table of recent
+ * hashes.  The table is lossy: a slot simply holds the most recent
+ * hash which mapped to it, so two datagrams sharing a slot only cause
+ * a duplicate to be missed.  A new datagram is dropped only if its full
+ * 64-bit hash matches a different datagram's within the window, which
+ * is negligibly likely.  Checking a datagram costs one pass over its
+ * bytes and allocates nothing.
+ *
+ * The source address is deliberately not part of the key, since the
+ * same responder uses a different address on each interface and
+ * address family.
+ *
+ * This class is not thread-safe; each receiver thread should have its
+ * own.
+ * @author simmons
+ */
+public final class DuplicateFilter {
+
+    public static final int DEFAULT_SIZE = 256;
+    public static final long DEFAULT_WINDOW = 250;
+
+    private static final long FNV_OFFSET = 0xCBF29CE484222325L;
+    private static final long FNV_PRIME = 0x100000001B3L;
+    private static final long WORD_PRIME = 0x9E3779B97F4A7C15L;
+
+    private final long[] hashes;
+    private final long[] times;
+    private final boolean[] used;
+    private final int mask;
+    private final long windowNanos;
+
+    public DuplicateFilter() {
+        this(DEFAULT_SIZE, DEFAULT_WINDOW);
+    }
+
+    /**
+     * @param size the number of recent datagrams remembered, rounded
+     *        up to a power of two
+     * @param windowMillis how long after a datagram an identical one
+     *        is considered a duplicate
+     */
+    public DuplicateFilter(int size, long windowMillis) {
+        int capacity = 1;
+        while (capacity < size) {
+            capacity <<= 1;
+        }
+        hashes = new long[capacity];
+        times = new long[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+        windowNanos = windowMillis * 1000000L;
+    }
+
+    /**
+     * Return true if an identical datagram from the same port was seen
+     * within the window.  Otherwise, remember this one and return false.
+     * A duplicate does not extend the window, so a datagram which is
+     * legitimately repeated (such as an announcement) passes again once
+     * the window has elapsed.
+     */
+    public boolean isDuplicate(byte[] data, int offset, int length, int port) {
+        // FNV-1a, but taking four bytes per multiply (with a stronger
+        // multiplier and an extra shift to mix the wider input), which
+        // roughly halves the cost of hashing a large response.
+        long h = FNV_OFFSET;
+        int end = offset + length;
+        int i = offset;
+        for (; i+4<=end; i+=4) {
+            int word = (data[i]&0xFF)<<24 | (data[i+1]&0xFF)<<16 | (data[i+2]&0xFF)<<8 | (data[i+3]&0xFF);
+            h = (h ^ (word & 0xFFFFFFFFL)) * WORD_PRIME;
+            h ^= h >>> 29;
+        }
+        for (; i<end; i++) {
+            h = (h ^ (data[i] & 0xFF)) * FNV_PRIME;
+        }
+        h = (h ^ port) * FNV_PRIME;
+        h = (h ^ length) * FNV_PRIME;
+
+        long now = System.nanoTime();
+        int slot = (int)(h ^ (h >>> 32)) & mask;
+        if (used[slot] && (hashes[slot] == h) && ((now - times[slot]) <= windowNanos)) {
+            return true;
+        }
+        used[slot] = true;
+        hashes[slot] = h;
+        times[slot] = now;
+        return false;
+    }
+
+    /**
+     * Forget all recent datagrams.
+     */
+    public void clear() {
+        for (int i=0; i<used.length; i++) {
+            used[i] = false;
+        }
+    }
+
+}
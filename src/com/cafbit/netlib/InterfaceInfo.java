@@ -65,21 +65,42 @@ public class InterfaceInfo {
         return ((flags & NET_WIRED) != 0);
     }
     
-    public static boolean isAddressLinkLocal(InetAddress address) {
-        // check for link-local
-        byte[] bytes = address.getAddress();
-        if (address instanceof Inet6Address) {
-            // ipv6 - fe80::/10
-            if ((bytes[0] == 0xFE) && ((bytes[1] & 0xC0) == 0x80)) {
-                return true;
-            }
-        } else if (address instanceof Inet4Address) {
-            // ipv4 - 169.254.1.0 - 169.254.254.255
-            if ((bytes[0] == 169) && (bytes[1] == 254) && (bytes[2] > 0) && (bytes[2] < 255)) {
-                return true;
+    /**
+     * Determine whether the other interface has the same name, flags,
+     * and addresses as this one.
+     */
+    public boolean isSame(InterfaceInfo other) {
+        if (other == null) {
+            return false;
+        }
+        if (flags != other.flags) {
+            return false;
+        }
+        if (! networkInterface.getName().equals(other.networkInterface.getName())) {
+            return false;
+        }
+        return addresses.equals(other.addresses);
+    }
+    
+    /**
+     * Determine whether this interface has exactly the given flags
+     * and addresses.
+     */
+    public boolean hasSameAddresses(List<InetAddress> inetAddresses, int flags) {
+        if ((this.flags != flags) || (addresses.size() != inetAddresses.size())) {
+            return false;
+        }
+        for (Address a : addresses) {
+            if (! inetAddresses.contains(a.getInetAddress())) {
+                return false;
             }
         }
-        return false;
+        return true;
+    }
+    
+    public static boolean isAddressLinkLocal(InetAddress address) {
+        int flags = AddressClassifier.getDefault().classify(address);
+        return ((flags & AddressClassifier.CLASS_LINK_LOCAL) != 0);
     }
     
     public String getFlagStrings() {
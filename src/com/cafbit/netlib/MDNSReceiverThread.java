@@ -19,46 +19,410 @@ package com.cafbit.netlib;
 
 import java.io.IOException;
 import java.net.DatagramPacket;
-import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+import com.cafbit.netlib.dns.DNSAnswer;
+import com.cafbit.netlib.dns.DNSComponent;
+import com.cafbit.netlib.dns.DNSHeader;
+import com.cafbit.netlib.dns.InterestFilter;
+import com.cafbit.netlib.ipc.BatchCommand;
+import com.cafbit.netlib.ipc.Command;
+import com.cafbit.netlib.ipc.CommandHandler;
 import com.cafbit.netlib.dns.DNSMessage;
+import com.cafbit.netlib.metrics.Metrics;
 
-public class MDNSReceiverThread extends MulticastReceiverThread {
+public class MDNSReceiverThread extends MulticastReceiverThread implements QueryTracker.Sender {
+
+    /**
+     * Receives each standard, error-free response, on the receiver
+     * thread, after its records have been added to the record cache.
+     */
+    public interface MessageListener {
+        public void onMessage(DNSMessage message);
+    }
 
     // the standard mDNS multicast address and port number
     private static final byte[] MDNS_ADDR =
         new byte[] {(byte) 224,(byte) 0,(byte) 0,(byte) 251};
     private static final int MDNS_PORT = 5353;
+    private static final int MAX_CACHED_TEMPLATES = 64;
+    public static final long DEFAULT_QUERY_TIMEOUT = 3000;
+    /** how often the cache is swept for expired records in delta mode */
+    public static final long EXPIRY_INTERVAL = 1000;
     
     private Random random = new Random(System.currentTimeMillis());
+    
+    private QueryTracker queryTracker = new QueryTracker(this);
+    private RecordCache recordCache = new RecordCache();
+    private volatile boolean responsesOnly = false;
+    private volatile InterestFilter interestFilter = null;
+    private volatile DuplicateFilter duplicateFilter = null;
+    private List<MessageListener> messageListeners = new CopyOnWriteArrayList<MessageListener>();
+    private volatile boolean deltaMode = false;
+    private volatile boolean reportRefreshes = false;
+    
+    // in delta mode, sweep the cache for expired records periodically
+    private Runnable expiryTask = new Runnable() {
+        public void run() {
+            if (! deltaMode) {
+                return;
+            }
+            synchronized (recordCache) {
+                dispatchEvents(recordCache.expire());
+            }
+            getNetworkManagerThread().getHandler().postDelayed(this, EXPIRY_INTERVAL);
+        }
+    };
+    
+    // templates for queries sent via sendQuery(name, type, messageId),
+    // in a map per type keyed by name, so a lookup builds no key
+    private Map<DNSComponent.Type,Map<String,QueryTemplate>> queryTemplates =
+        new EnumMap<DNSComponent.Type,Map<String,QueryTemplate>>(DNSComponent.Type.class);
 
     public MDNSReceiverThread(NetworkManagerThread networkManager) throws IOException {
         super(networkManager, MDNS_ADDR, MDNS_PORT);
+        for (DNSComponent.Type type : DNSComponent.Type.values()) {
+            queryTemplates.put(type, new LinkedHashMap<String,QueryTemplate>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String,QueryTemplate> eldest) {
+                    return size() > MAX_CACHED_TEMPLATES;
+                }
+            });
+        }
+    }
+
+    /**
+     * Apply the header, duplicate, and interest filters, on the
+     * receiving thread.
+     */
+    @Override
+    protected boolean acceptPacket(DatagramPacket datagramPacket) {
+        byte[] data = datagramPacket.getData();
+        int offset = datagramPacket.getOffset();
+        int length = datagramPacket.getLength();
+        
+        // classify the packet by its header, and drop queries
+        // if only responses are wanted.
+        boolean response = DNSHeader.peekIsResponse(data, offset, length);
+        if (responsesOnly && ! response) {
+            return false;
+        }
+        
+        // drop responses which already arrived over another interface
+        // or address family.  queries are not checked, since different
+        // hosts often send identical queries.
+        DuplicateFilter duplicates = duplicateFilter;
+        if ((duplicates != null) && response &&
+                duplicates.isDuplicate(data, offset, length, datagramPacket.getPort())) {
+            return false;
+        }
+        
+        // drop packets without any names of interest
+        InterestFilter filter = interestFilter;
+        if ((filter != null) && ! filter.matches(data, offset, length)) {
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Everything needed from the packet is copied into the DNSMessage
+     * and the packet entry, so its buffer may be reused.
+     */
+    @Override
+    protected boolean retainsPackets() {
+        return false;
     }
 
     @Override
     protected void handlePacket(DatagramPacket datagramPacket) {
-        /*
-        Log.v(TAG, String.format("received: offset=0x%04X (%d) length=0x%04X (%d)", datagramPacket.getOffset(), datagramPacket.getOffset(), datagramPacket.getLength(), datagramPacket.getLength()));
-        Log.v(TAG, Util.hexDump(datagramPacket.getData(), datagramPacket.getOffset(), datagramPacket.getLength()));
-        */
+        // dump a sample of packets when tracing
+        if (NetLog.shouldDumpPacket()) {
+            NetLog.log(NetLog.TRACE, "mdns.packet", String.format(
+                "received: offset=0x%04X (%d) length=0x%04X (%d)\n%s",
+                datagramPacket.getOffset(), datagramPacket.getOffset(),
+                datagramPacket.getLength(), datagramPacket.getLength(),
+                Util.hexDump(datagramPacket.getData(), datagramPacket.getOffset(), datagramPacket.getLength())
+            ));
+        }
         
         // parse the DNS packet
-        DNSMessage message = new DNSMessage(datagramPacket.getData(), datagramPacket.getOffset(), datagramPacket.getLength());
+        Metrics metrics = getMetrics();
+        long start = System.nanoTime();
+        DNSMessage message;
+        try {
+            message = new DNSMessage(datagramPacket.getData(), datagramPacket.getOffset(), datagramPacket.getLength());
+        } catch (RuntimeException e) {
+            metrics.parseErrors.increment();
+            throw e;
+        }
+        metrics.parseTime.recordSince(start);
+        countRecords(metrics, message.getAnswers());
+        countRecords(metrics, message.getAuthorities());
+        countRecords(metrics, message.getAdditionals());
 
+        // remember the records, and complete any queries answered
+        // by this message.  only standard, error-free responses are
+        // used: the answers in a query are just the querier's known
+        // answers, and messages with a nonzero opcode or rcode must be
+        // ignored (RFC 6762 section 18).  authority records are not
+        // cached, since in mDNS they are only proposals from a probing
+        // host.
+        boolean delta = deltaMode;
+        List<RecordEvent> events = delta ? new ArrayList<RecordEvent>() : null;
+        if (message.isResponse() &&
+                (message.getOpcode() == DNSHeader.OPCODE_QUERY) &&
+                (message.getRcode() == DNSHeader.RCODE_NOERROR)) {
+            // the cache stays locked until its events are dispatched,
+            // so events from different parser threads reach the
+            // network manager in the order the cache was changed.
+            synchronized (recordCache) {
+                recordCache.putAll(message.getAnswers(), events);
+                recordCache.putAll(message.getAdditionals(), events);
+                if (delta) {
+                    dispatchEvents(events);
+                }
+            }
+            queryTracker.onMessage(message);
+            for (MessageListener listener : messageListeners) {
+                listener.onMessage(message);
+            }
+        }
+        
+        // in delta mode, only the changes go to the network manager
+        if (delta) {
+            return;
+        }
+        
         // summarize the packet contents
         PacketEntry packetEntry = new MDNSPacketEntry(datagramPacket, getSocket(), message);
         
         // send the packet entry to the network manager
-        System.out.println("MDNSReceiverThread: SENDING PACKETENTRY");
+        if (NetLog.isLoggable(NetLog.TRACE)) {
+            NetLog.log(NetLog.TRACE, "mdns.dispatch", packetEntry.src+":"+packetEntry.srcPort);
+        }
         getNetworkManagerThread().getHandler().sendCommand(packetEntry);
     }
 
-    public void sendQuery(String name) throws IOException {
-        byte[] requestData = (new DNSMessage(name)).serialize();
-        DatagramPacket request =
-            new DatagramPacket(requestData, requestData.length, InetAddress.getByAddress(MDNS_ADDR), MDNS_PORT);
-        send(request);
+    /**
+     * If set, queries are dropped on receipt, from their header alone,
+     * and only responses are parsed and passed to the network manager.
+     */
+    public void setResponsesOnly(boolean responsesOnly) {
+        this.responsesOnly = responsesOnly;
+    }
+    
+    public boolean isResponsesOnly() {
+        return responsesOnly;
+    }
+    
+    /**
+     * Only parse packets which contain a question or record matching
+     * the given filter, or all packets if the filter is null.  Note
+     * that responses to our own queries are also subject to the filter.
+     */
+    public void setInterestFilter(InterestFilter interestFilter) {
+        this.interestFilter = interestFilter;
+    }
+    
+    public InterestFilter getInterestFilter() {
+        return interestFilter;
+    }
+    
+    /**
+     * Drop responses identical to one received a moment earlier, such
+     * as the copies of a response which arrive when the responder and
+     * this host share several interfaces or address families.  The
+     * filter is used only on the receiving thread, even when there
+     * are parser threads.  Set null (the default) to parse every copy.
+     */
+    public void setDuplicateFilter(DuplicateFilter duplicateFilter) {
+        this.duplicateFilter = duplicateFilter;
+    }
+    
+    public DuplicateFilter getDuplicateFilter() {
+        return duplicateFilter;
+    }
+    
+    /**
+     * In delta mode, the network manager receives a RecordEvent for
+     * each change to the known records (see RecordCache), instead of
+     * an MDNSPacketEntry for every packet.  Since responders announce
+     * the same records repeatedly, this keeps the manager's work
+     * proportional to the changes on the network rather than to the
+     * packets.  Queries from other hosts are not passed on at all.
+     */
+    public void setDeltaMode(boolean deltaMode) {
+        if (this.deltaMode == deltaMode) {
+            return;
+        }
+        this.deltaMode = deltaMode;
+        CommandHandler handler = getNetworkManagerThread().getHandler();
+        handler.removeCallbacks(expiryTask);
+        if (deltaMode) {
+            handler.postDelayed(expiryTask, EXPIRY_INTERVAL);
+        }
+    }
+    
+    public boolean isDeltaMode() {
+        return deltaMode;
+    }
+    
+    /**
+     * In delta mode, also pass on REFRESHED events, which are sent
+     * whenever a known record is seen again.  Off by default.
+     */
+    public void setReportRefreshes(boolean reportRefreshes) {
+        this.reportRefreshes = reportRefreshes;
+    }
+    
+    /**
+     * Pass the events to the network manager, in a single message.
+     */
+    private void dispatchEvents(List<RecordEvent> events) {
+        List<Command> commands = new ArrayList<Command>(events.size());
+        boolean refreshes = reportRefreshes;
+        for (RecordEvent event : events) {
+            if (refreshes || (event.kind != RecordEvent.Kind.REFRESHED)) {
+                commands.add(event);
+            }
+        }
+        if (commands.size() == 1) {
+            getNetworkManagerThread().getHandler().sendCommand(commands.get(0));
+        } else if (! commands.isEmpty()) {
+            getNetworkManagerThread().getHandler().sendCommand(new BatchCommand(commands));
+        }
+    }
+    
+    public void addMessageListener(MessageListener listener) {
+        messageListeners.add(listener);
+    }
+    
+    public void removeMessageListener(MessageListener listener) {
+        messageListeners.remove(listener);
+    }
+    
+    /**
+     * Send an arbitrary message, such as a query with several
+     * questions, to the mDNS group.
+     */
+    public void sendMessage(DNSMessage message) throws IOException {
+        byte[] data = message.serialize();
+        send(new DatagramPacket(data, data.length, getGroupAddress(), MDNS_PORT));
+    }
+    
+    private static void countRecords(Metrics metrics, List<DNSAnswer> records) {
+        for (DNSAnswer record : records) {
+            metrics.countRecord(record.type);
+        }
+    }
+    
+    public RecordCache getRecordCache() {
+        return recordCache;
+    }
+    
+    /**
+     * Resolve records of the given name and type.  Records already in
+     * the cache are returned immediately, in a completed future.
+     * Otherwise a query is sent (or an identical outstanding query is
+     * joined), and the future completes with the answers of the first
+     * response, or fails with a TimeoutException.
+     */
+    public ResultFuture<List<DNSAnswer>> resolve(String name, DNSComponent.Type type, long timeoutMillis) throws IOException {
+        List<DNSAnswer> cached = recordCache.get(name, type);
+        if (! cached.isEmpty()) {
+            ResultFuture<List<DNSAnswer>> future = new ResultFuture<List<DNSAnswer>>();
+            future.set(cached);
+            return future;
+        }
+        return query(name, type, timeoutMillis);
+    }
+    
+    /**
+     * Resolve records of the given name and type, blocking until they
+     * are available.  This must not be called from the receiver or
+     * network manager threads, which deliver the responses and timeouts.
+     */
+    public List<DNSAnswer> resolveSync(String name, DNSComponent.Type type, long timeoutMillis)
+            throws IOException, InterruptedException, TimeoutException {
+        try {
+            return resolve(name, type, timeoutMillis).get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof TimeoutException) {
+                throw (TimeoutException)cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException)cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+    
+    /**
+     * Send an ANY query for the given name, and return a future for the
+     * answers of the first response.  If the same query is already
+     * outstanding, it is shared rather than sent again.
+     */
+    public ResultFuture<List<DNSAnswer>> sendQuery(String name) throws IOException {
+        return query(name, DNSComponent.Type.ANY, DEFAULT_QUERY_TIMEOUT);
+    }
+    
+    /**
+     * Query for records of the given name and type, and return a future
+     * for the answers of the first response.  The future fails with a
+     * TimeoutException if no response arrives in time.
+     */
+    public ResultFuture<List<DNSAnswer>> query(String name, DNSComponent.Type type, long timeoutMillis) throws IOException {
+        return queryTracker.query(name, type, timeoutMillis, getNetworkManagerThread().getHandler());
+    }
+    
+    /**
+     * Send a query with the given message ID.  Recently used questions
+     * (up to MAX_CACHED_TEMPLATES names per type) keep their pre-encoded
+     * query, so repeated queries do not allocate.
+     */
+    public void sendQuery(String name, DNSComponent.Type type, short messageId) throws IOException {
+        Map<String,QueryTemplate> templates = queryTemplates.get(type);
+        QueryTemplate template;
+        synchronized (templates) {
+            template = templates.get(name);
+            if (template == null) {
+                template = createQueryTemplate(name, type);
+                templates.put(name, template);
+            }
+        }
+        template.send(this, messageId);
+    }
+    
+    /**
+     * Build a pre-encoded query, addressed to the mDNS group, which can
+     * be sent repeatedly with sendQuery(QueryTemplate).
+     */
+    public QueryTemplate createQueryTemplate(String name, DNSComponent.Type type) {
+        return new QueryTemplate(new DNSMessage(name, type), getGroupAddress(), MDNS_PORT);
+    }
+    
+    /**
+     * Send a pre-encoded query with a fresh message ID.
+     */
+    public void sendQuery(QueryTemplate template) throws IOException {
+        template.send(this, DNSMessage.nextMessageId());
+    }
+    
+    @Override
+    public void quit() {
+        super.quit();
+        getNetworkManagerThread().getHandler().removeCallbacks(expiryTask);
+        queryTracker.cancelAll();
     }
 }
@@ -22,11 +22,13 @@ import java.net.DatagramPacket;
 import java.net.InetAddress;
 import java.net.MulticastSocket;
 import java.net.NetworkInterface;
-import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import com.cafbit.netlib.ipc.DatagramCommand;
 import com.cafbit.netlib.ipc.ErrorCommand;
 import com.cafbit.netlib.ipc.CommandHandler;
+import com.cafbit.netlib.metrics.Metrics;
 
 import android.util.Log;
 
@@ -34,16 +36,22 @@ public class MulticastReceiverThread extends Thread implements ReceiverThread {
 
     protected static final String TAG = NetUtil.TAG;
     private static final int BUFFER_SIZE = 4096;
+    /** the number of packet buffers owned by each parser thread */
+    private static final int PARSER_POOL_SIZE = 64;
 
     private NetworkManagerThread networkManagerThread;
     private CommandHandler managerHandler;
-    private NetworkInterface networkInterface;
+    private Metrics metrics;
+    private volatile NetworkInterface networkInterface;
     private InetAddress groupAddress;
     private int port;
     
     private MulticastSocket socket;
-    private Set<InetAddress> localAddresses;
+    private volatile AddressSet localAddresses = AddressSet.EMPTY;
+    private volatile PacketCapture packetCapture = null;
     private boolean quitFlag = false;
+    private int parserThreads = 1;
+    private ParserThread[] parsers = null;
     
     public MulticastReceiverThread(
             NetworkManagerThread networkManagerThread,
@@ -53,11 +61,12 @@ public class MulticastReceiverThread extends Thread implements ReceiverThread {
         super("multicast-receiver");
         this.networkManagerThread = networkManagerThread;
         this.managerHandler = networkManagerThread.getHandler();
+        this.metrics = networkManagerThread.getMetrics();
         this.networkInterface = networkManagerThread.getNetworkInterface();
         this.groupAddress = InetAddress.getByAddress(groupAddress);
         this.port = port;
         openSocket();
-        localAddresses = NetUtil.getLocalAddresses();
+        refreshLocalAddresses();
     }
 
     private void openSocket() throws IOException {
@@ -69,6 +78,35 @@ public class MulticastReceiverThread extends Thread implements ReceiverThread {
         socket.joinGroup(groupAddress);
     }
 
+    /**
+     * Rejoin the multicast group on the given interface.  If the old
+     * interface has disappeared, leaving the group may fail; this is
+     * harmless, since the kernel has already dropped the membership.
+     */
+    public void rebind(NetworkInterface networkInterface) throws IOException {
+        synchronized (socket) {
+            try {
+                socket.leaveGroup(groupAddress);
+            } catch (IOException e) {
+                Log.v(TAG, "cannot leave group on old interface: "+e.getMessage());
+            }
+            this.networkInterface = networkInterface;
+            socket.setNetworkInterface(networkInterface);
+            socket.joinGroup(groupAddress);
+        }
+        refreshLocalAddresses();
+    }
+
+    /**
+     * Rebuild the set of local addresses used to recognize our own
+     * transmissions.  This should be called whenever the network
+     * configuration changes (e.g. after a DHCP renewal), and may be
+     * called from any thread.
+     */
+    public void refreshLocalAddresses() {
+        localAddresses = new AddressSet(NetUtil.getLocalAddresses());
+    }
+
     /**
      * The main network loop.  Multicast datagrams are received and
      * forwarded to the listener.  This thread may be terminated by
@@ -77,15 +115,30 @@ public class MulticastReceiverThread extends Thread implements ReceiverThread {
     @Override
     public void run() {
         
+        // start the parser threads, if any
+        if (parserThreads > 1) {
+            parsers = new ParserThread[parserThreads];
+            for (int i=0; i<parsers.length; i++) {
+                parsers[i] = new ParserThread(i);
+                parsers[i].start();
+            }
+        }
+        
+        // a single buffer is reused for incoming packets, unless
+        // handlePacket() passes it on to other threads.  parser threads
+        // copy each packet into a buffer of their own.
+        boolean reuseBuffer = (parsers != null) || ! retainsPackets();
+        DatagramPacket response = null;
+        
         // loop!
         while (true) {
             // set up the buffer for incoming packets.
-            // it would be nice to have reusable buffers, but we are passing
-            // these buffers to other threads.  we could set up a re-use
-            // scheme, but it would be overkill.  this isn't designed to be
-            // high-speed networking code.
-            byte[] responseBuffer = new byte[BUFFER_SIZE];
-            DatagramPacket response = new DatagramPacket(responseBuffer, BUFFER_SIZE);
+            if ((response == null) || ! reuseBuffer) {
+                byte[] responseBuffer = new byte[BUFFER_SIZE];
+                response = new DatagramPacket(responseBuffer, BUFFER_SIZE);
+            } else {
+                response.setLength(BUFFER_SIZE);
+            }
 
             // receive a packet
             try {
@@ -96,22 +149,173 @@ public class MulticastReceiverThread extends Thread implements ReceiverThread {
                 }
                 break;
             }
+            long start = System.nanoTime();
+            metrics.packetsReceived.increment();
+            PacketCapture capture = packetCapture;
+            if (capture != null) {
+                capture.recordReceived(response, groupAddress, port, networkInterface.getName());
+            }
             
             // ignore our own packet transmissions.
             if (localAddresses.contains(response.getAddress())) {
+                metrics.packetsDropped.increment();
                 continue;
             }
             
-            // pass the packet to the listener
-            try {
-                handlePacket(response);
-            } catch (Exception e) {
-                managerHandler.sendCommand(new ErrorCommand(e));
+            // drop uninteresting packets before they are handled
+            if (! acceptPacket(response)) {
+                metrics.packetsDropped.increment();
+                continue;
+            }
+            
+            // pass the packet to the listener, or to its parser thread.
+            // packets are assigned to parser threads by source address,
+            // so the packets from each address are handled in order.
+            if (parsers == null) {
+                handlePacketSafely(response);
+            } else {
+                int hash = addressHash(response.getAddress().getAddress());
+                if (! parsers[(hash & 0x7FFFFFFF) % parsers.length].dispatch(response)) {
+                    // the parser thread has fallen behind
+                    metrics.packetsDropped.increment();
+                }
+            }
+            metrics.receiveTime.recordSince(start);
+        }
+        
+        if (parsers != null) {
+            for (ParserThread parser : parsers) {
+                parser.interrupt();
             }
         }
 
     }
     
+    /**
+     * Hash the raw address bytes.  (InetAddress.hashCode() is computed
+     * differently on different platforms.)
+     */
+    private static int addressHash(byte[] address) {
+        int h = 0;
+        for (int i=0; i<address.length; i++) {
+            h = 31*h + (address[i] & 0xFF);
+        }
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+    
+    private void handlePacketSafely(DatagramPacket packet) {
+        try {
+            handlePacket(packet);
+        } catch (Exception e) {
+            metrics.handlerErrors.increment();
+            PacketCapture capture = packetCapture;
+            if (capture != null) {
+                capture.dumpOnError();
+            }
+            managerHandler.sendCommand(new ErrorCommand(e));
+        }
+    }
+    
+    /**
+     * A thread which handles the packets from a subset of the source
+     * addresses, using its own pool of packet buffers.
+     */
+    private class ParserThread extends Thread {
+        private final BlockingQueue<DatagramPacket> queue =
+            new ArrayBlockingQueue<DatagramPacket>(PARSER_POOL_SIZE);
+        private final BlockingQueue<DatagramPacket> pool =
+            new ArrayBlockingQueue<DatagramPacket>(PARSER_POOL_SIZE);
+        
+        ParserThread(int n) {
+            super(MulticastReceiverThread.this.getName()+"-parser-"+n);
+            for (int i=0; i<PARSER_POOL_SIZE; i++) {
+                pool.add(new DatagramPacket(new byte[BUFFER_SIZE], BUFFER_SIZE));
+            }
+        }
+        
+        /**
+         * Copy the packet into a pooled buffer, and queue it for this
+         * thread.  Called on the receiving thread.  Returns false if
+         * all of the buffers are in use.
+         */
+        boolean dispatch(DatagramPacket packet) {
+            DatagramPacket copy = pool.poll();
+            if (copy == null) {
+                return false;
+            }
+            System.arraycopy(packet.getData(), packet.getOffset(), copy.getData(), 0, packet.getLength());
+            copy.setLength(packet.getLength());
+            copy.setAddress(packet.getAddress());
+            copy.setPort(packet.getPort());
+            queue.add(copy);
+            return true;
+        }
+        
+        @Override
+        public void run() {
+            boolean retains = retainsPackets();
+            while (true) {
+                DatagramPacket packet;
+                try {
+                    packet = queue.take();
+                } catch (InterruptedException e) {
+                    break;
+                }
+                handlePacketSafely(packet);
+                if (retains) {
+                    // the handler kept this buffer, so replace it
+                    packet = new DatagramPacket(new byte[BUFFER_SIZE], BUFFER_SIZE);
+                }
+                pool.add(packet);
+            }
+        }
+    }
+    
+    /**
+     * Decide, on the receiving thread, whether a packet should be
+     * handled at all.  This is the place for cheap checks which drop
+     * most unwanted packets before handlePacket() does any real work;
+     * rejected packets are counted as dropped.  The default
+     * implementation accepts every packet.
+     */
+    protected boolean acceptPacket(DatagramPacket datagramPacket) {
+        return true;
+    }
+    
+    /**
+     * Return true if handlePacket() holds on to the packet (or its
+     * buffer) after returning, as the default implementation does by
+     * passing it to the network manager.  Subclasses which copy out
+     * whatever they need should return false, so the packet buffers
+     * can be reused.
+     */
+    protected boolean retainsPackets() {
+        return true;
+    }
+    
+    /**
+     * Handle packets on the given number of parser threads, rather
+     * than on the receiving thread.  This thread then only receives
+     * packets and runs acceptPacket(), and the packets from each source
+     * address go to one parser thread, so they are handled in order.
+     * A host which sends from several addresses (over IPv4 and IPv6, or
+     * on several interfaces) may have its packets handled concurrently,
+     * so handlePacket() must not only be thread-safe, but must order
+     * any effects which depend on packet order itself; the mDNS
+     * receiver does this by dispatching record events under the record
+     * cache's lock.  This lets parsing scale across cores when
+     * watching a very busy network.  This must be called before the thread is started;
+     * the default is 1, meaning no parser threads.
+     */
+    public void setParserThreads(int parserThreads) {
+        this.parserThreads = parserThreads;
+    }
+    
+    public int getParserThreads() {
+        return parserThreads;
+    }
+    
     protected void handlePacket(DatagramPacket datagramPacket) {
         DatagramCommand datagramCommand = new DatagramCommand(this, socket, datagramPacket);
         managerHandler.sendCommand(datagramCommand);
@@ -124,6 +328,11 @@ public class MulticastReceiverThread extends Thread implements ReceiverThread {
      */
     public void send(DatagramPacket packet) throws IOException {
         socket.send(packet);
+        metrics.packetsSent.increment();
+        PacketCapture capture = packetCapture;
+        if (capture != null) {
+            capture.recordSent(packet, socket.getLocalAddress(), port, networkInterface.getName());
+        }
     }
 
     /**
@@ -136,6 +345,26 @@ public class MulticastReceiverThread extends Thread implements ReceiverThread {
         socket.close();
     }
     
+    /**
+     * Record this thread's sent and received datagrams into the given
+     * capture ring, or stop recording if null.
+     */
+    public void setPacketCapture(PacketCapture packetCapture) {
+        this.packetCapture = packetCapture;
+    }
+    
+    public PacketCapture getPacketCapture() {
+        return packetCapture;
+    }
+    
+    protected InetAddress getGroupAddress() {
+        return groupAddress;
+    }
+    
+    protected int getPort() {
+        return port;
+    }
+    
     protected MulticastSocket getSocket() {
         return socket;
     }
@@ -144,4 +373,8 @@ public class MulticastReceiverThread extends Thread implements ReceiverThread {
         return networkManagerThread;
     }
     
+    protected Metrics getMetrics() {
+        return metrics;
+    }
+    
 }
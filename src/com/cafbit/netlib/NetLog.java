@@ -0,0 +1,147 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cafbit.netlib;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.util.Log;
+
+/**
+ * A small structured logging hook for the library.  Each log call
+ * names an event (e.g. "mdns.packet") and supplies a message, and is
+ * passed to a pluggable Sink.  Hot paths should guard their calls with
+ * isLoggable(), or pass a Message whose text is only built when the
+ * level is enabled, so that disabled logging costs a single volatile
+ * read.
+ *
+ * By default, events at INFO and above are sent to the Android log.
+ * @author simmons
+ */
+public final class NetLog {
+
+    public static final int TRACE = 0;
+    public static final int DEBUG = 1;
+    public static final int INFO  = 2;
+    public static final int WARN  = 3;
+    public static final int ERROR = 4;
+    public static final int OFF   = 5;
+
+    /**
+     * Receives log events which pass the level check.
+     */
+    public interface Sink {
+        public void log(int level, String event, String message, Throwable throwable);
+    }
+
+    /**
+     * A log message which is only built if it will be logged.
+     */
+    public static abstract class Message {
+        public abstract String build();
+    }
+
+    /**
+     * Send events to android.util.Log under the library's tag.
+     */
+    public static class AndroidSink implements Sink {
+        public void log(int level, String event, String message, Throwable throwable) {
+            String text = event+": "+message;
+            switch (level) {
+            case TRACE:
+                Log.v(NetUtil.TAG, text, throwable);
+                break;
+            case DEBUG:
+                Log.d(NetUtil.TAG, text, throwable);
+                break;
+            case INFO:
+                Log.i(NetUtil.TAG, text, throwable);
+                break;
+            case WARN:
+                Log.w(NetUtil.TAG, text, throwable);
+                break;
+            default:
+                Log.e(NetUtil.TAG, text, throwable);
+                break;
+            }
+        }
+    }
+
+    private static volatile Sink sink = new AndroidSink();
+    private static volatile int level = INFO;
+    private static volatile int packetDumpInterval = 0;
+    private static final AtomicInteger packetCount = new AtomicInteger();
+
+    private NetLog() {}
+
+    public static void setSink(Sink sink) {
+        NetLog.sink = sink;
+    }
+
+    public static void setLevel(int level) {
+        NetLog.level = level;
+    }
+
+    public static int getLevel() {
+        return level;
+    }
+
+    public static boolean isLoggable(int level) {
+        return (level >= NetLog.level);
+    }
+
+    /**
+     * Dump one out of every interval packets at TRACE level.  An
+     * interval of 1 dumps every packet; 0 disables packet dumps.
+     */
+    public static void setPacketDumpInterval(int interval) {
+        packetDumpInterval = interval;
+    }
+
+    /**
+     * Determine whether the current packet should be dumped, according
+     * to the TRACE level and the packet dump interval.
+     */
+    public static boolean shouldDumpPacket() {
+        int interval = packetDumpInterval;
+        if ((interval <= 0) || (! isLoggable(TRACE))) {
+            return false;
+        }
+        return ((packetCount.incrementAndGet() % interval) == 0);
+    }
+
+    // logging methods
+
+    public static void log(int level, String event, String message) {
+        if (level >= NetLog.level) {
+            sink.log(level, event, message, null);
+        }
+    }
+
+    public static void log(int level, String event, String message, Throwable throwable) {
+        if (level >= NetLog.level) {
+            sink.log(level, event, message, throwable);
+        }
+    }
+
+    public static void log(int level, String event, Message message) {
+        if (level >= NetLog.level) {
+            sink.log(level, event, message.build(), null);
+        }
+    }
+
+}
@@ -24,13 +24,17 @@ import java.net.Socket;
 import java.net.SocketException;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import android.content.Context;
 import android.net.wifi.WifiManager;
+import android.os.SystemClock;
 import android.util.Log;
 
 /**
@@ -40,8 +44,17 @@ import android.util.Log;
 public class NetUtil {
     
     public static final String TAG = "NetLib";
+    public static final long DEFAULT_REFRESH_INTERVAL = 5*1000;
     private WifiManager wifiManager;
     
+    // network information cache
+    private List<InterfaceInfo> snapshot = null;
+    private List<InterfaceInfo> cachedInformation = null;
+    private long cacheTime = 0;
+    private long refreshInterval = DEFAULT_REFRESH_INTERVAL;
+    private int generation = 0;
+    private InetAddress localhost = null;
+    
     public static class NetInfoException extends Exception {
         private static final long serialVersionUID = 5543786811674326615L;
         public NetInfoException() {}
@@ -86,7 +99,58 @@ public class NetUtil {
         return addresses;
     }
     
+    /**
+     * Return a snapshot of the network interfaces and their addresses.
+     * The snapshot is cached for the refresh interval, so repeated
+     * callers (UI, diagnostics) do not pay for re-enumerating the
+     * interfaces each time.  The returned list is unmodifiable.
+     */
     public List<InterfaceInfo> getNetworkInformation() throws NetInfoException {
+        return getNetworkInformation(false);
+    }
+    
+    /**
+     * Return a snapshot of the network interfaces and their addresses,
+     * optionally bypassing the cache.
+     */
+    public synchronized List<InterfaceInfo> getNetworkInformation(boolean forceRefresh) throws NetInfoException {
+        long now = SystemClock.elapsedRealtime();
+        if (forceRefresh ||
+            (cachedInformation == null) ||
+            ((now - cacheTime) >= refreshInterval)
+        ) {
+            refreshNetworkInformation();
+            cacheTime = now;
+        }
+        return cachedInformation;
+    }
+    
+    /**
+     * Set the maximum age, in milliseconds, of a cached network
+     * information snapshot.  A value of zero disables caching.
+     */
+    public synchronized void setRefreshInterval(long refreshInterval) {
+        this.refreshInterval = refreshInterval;
+    }
+    
+    /**
+     * Return a number which is incremented each time a refresh finds
+     * that the network configuration has changed.  Callers can compare
+     * this with a previously seen value to cheaply detect changes.
+     */
+    public synchronized int getGeneration() {
+        return generation;
+    }
+    
+    /**
+     * Discard the cached snapshot, so the next request re-enumerates
+     * the network interfaces.
+     */
+    public synchronized void invalidate() {
+        cachedInformation = null;
+    }
+    
+    private void refreshNetworkInformation() throws NetInfoException {
         List<InterfaceInfo> interfaceList = new ArrayList<InterfaceInfo>();
         
         InetAddress wifiAddress = null;
@@ -117,11 +181,14 @@ public class NetUtil {
             }
         }
         
-        InetAddress localhost;
-        try {
-            localhost = InetAddress.getLocalHost();
-        } catch (Exception e) {
-            throw new NetInfoException("cannot determine the localhost address", e);
+        // InetAddress.getLocalHost() may block on name resolution,
+        // so only look it up once.
+        if (localhost == null) {
+            try {
+                localhost = InetAddress.getLocalHost();
+            } catch (Exception e) {
+                throw new NetInfoException("cannot determine the localhost address", e);
+            }
         }
 
         // get a list of all network interfaces
@@ -132,12 +199,22 @@ public class NetUtil {
             throw new NetInfoException("problem getting net interfaces", e);
         }
 
+        // index the previous snapshot by interface name, so unchanged
+        // interfaces can be carried over as-is.
+        Map<String,InterfaceInfo> previous = new HashMap<String,InterfaceInfo>();
+        if (snapshot != null) {
+            for (InterfaceInfo ii : snapshot) {
+                previous.put(ii.getNetworkInterface().getName(), ii);
+            }
+        }
+        boolean changed = (snapshot == null);
+
         // find the wifi network interface based on the ip address
         while (networkInterfaces.hasMoreElements()) {
             NetworkInterface networkInterface = networkInterfaces.nextElement();
             int flags = 0;
             Enumeration<InetAddress> addressEnum = networkInterface.getInetAddresses();
-            List<Address> addresses = new ArrayList<Address>();
+            List<InetAddress> addresses = new ArrayList<InetAddress>();
             while (addressEnum.hasMoreElements()) {
                 InetAddress address = addressEnum.nextElement();
 
@@ -154,7 +231,7 @@ public class NetUtil {
                     flags |= InterfaceInfo.NET_WIFI;
                 }
                 
-                addresses.add(new Address(address));
+                addresses.add(address);
             }
             
             // assume an eth* interface that isn't wifi is wired ethernet.
@@ -162,9 +239,29 @@ public class NetUtil {
                 flags |= InterfaceInfo.NET_WIRED;
             }
 
-            interfaceList.add(new InterfaceInfo(networkInterface, addresses, flags));
+            InterfaceInfo old = previous.get(networkInterface.getName());
+            if ((old != null) && old.hasSameAddresses(addresses, flags)) {
+                interfaceList.add(old);
+            } else {
+                List<Address> addressList = new ArrayList<Address>(addresses.size());
+                for (InetAddress address : addresses) {
+                    addressList.add(new Address(address));
+                }
+                interfaceList.add(new InterfaceInfo(networkInterface, addressList, flags));
+                changed = true;
+            }
+        }
+        if (interfaceList.size() != previous.size()) {
+            changed = true;
+        }
+        
+        if (changed) {
+            snapshot = interfaceList;
+            cachedInformation = Collections.unmodifiableList(interfaceList);
+            generation++;
+        } else if (cachedInformation == null) {
+            cachedInformation = Collections.unmodifiableList(snapshot);
         }
-        return interfaceList;
     }
     
     public NetworkInterface getFirstWifiInterface() {
@@ -194,13 +291,19 @@ public class NetUtil {
     }
 
     public String getNetworkInformationString() {
-        NetworkInterface inUseInterface = getFirstWifiOrEthernetInterface();
         List<InterfaceInfo> lii;
         try {
             lii = getNetworkInformation();
         } catch (NetInfoException e) {
             return "Error fetching network information:\n" + e.getMessage();
         }
+        NetworkInterface inUseInterface = null;
+        for (InterfaceInfo ii : lii) {
+            if (ii.isWifi() || ii.isWired()) {
+                inUseInterface = ii.getNetworkInterface();
+                break;
+            }
+        }
         
         // reorder interface list with the in-use interface shown first
         List<InterfaceInfo> lii2 = new ArrayList<InterfaceInfo>(lii.size());
@@ -21,9 +21,11 @@ import java.net.NetworkInterface;
 
 import com.cafbit.netlib.ipc.CommandListener;
 import com.cafbit.netlib.ipc.CommandHandler;
+import com.cafbit.netlib.metrics.Metrics;
 
 public interface NetworkManagerThread {
     public CommandHandler getHandler();
     public CommandListener getCommandListener();
     public NetworkInterface getNetworkInterface();
+    public Metrics getMetrics();
 }
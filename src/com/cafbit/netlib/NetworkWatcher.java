@@ -0,0 +1,183 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cafbit.netlib;
+
+import java.util.Iterator;
+import java.util.List;
+
+import com.cafbit.netlib.NetUtil.NetInfoException;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.os.Handler;
+import android.util.Log;
+
+/**
+ * Watch for changes to the network configuration.  The watcher
+ * subscribes to connectivity broadcasts and, optionally, polls the
+ * interface list at a fixed interval to catch changes the system
+ * does not announce (such as a DHCP renewal yielding a new address).
+ * Each check takes a snapshot of the interfaces and compares it with
+ * the previous snapshot; the listener is only notified when something
+ * actually differs.
+ *
+ * All work is performed on the thread owning the supplied Handler.
+ * @author simmons
+ */
+public class NetworkWatcher {
+
+    private static final String TAG = NetUtil.TAG;
+    public static final long DEFAULT_POLL_INTERVAL = 30*1000;
+
+    public interface Listener {
+        public void onNetworkChange(List<InterfaceInfo> interfaces);
+    }
+
+    private Context context;
+    private NetUtil netUtil;
+    private Handler handler;
+    private Listener listener;
+    private long pollInterval = DEFAULT_POLL_INTERVAL;
+    private List<InterfaceInfo> snapshot = null;
+    private int generation;
+    private boolean running = false;
+
+    public NetworkWatcher(Context context, NetUtil netUtil, Handler handler, Listener listener) {
+        this.context = context;
+        this.netUtil = netUtil;
+        this.handler = handler;
+        this.listener = listener;
+    }
+
+    /**
+     * Set the polling interval in milliseconds.  A value of zero
+     * disables polling, leaving only the connectivity broadcasts.
+     */
+    public void setPollInterval(long pollInterval) {
+        this.pollInterval = pollInterval;
+        if (running) {
+            handler.removeCallbacks(pollRunnable);
+            schedulePoll();
+        }
+    }
+
+    public void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        snapshot = takeSnapshot();
+        generation = netUtil.getGeneration();
+        context.registerReceiver(
+            connectivityReceiver,
+            new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION),
+            null,
+            handler
+        );
+        schedulePoll();
+    }
+
+    public void stop() {
+        if (! running) {
+            return;
+        }
+        running = false;
+        handler.removeCallbacks(pollRunnable);
+        context.unregisterReceiver(connectivityReceiver);
+    }
+
+    /**
+     * Compare the current network configuration with the last known
+     * configuration, and notify the listener if they differ.
+     */
+    public void check() {
+        List<InterfaceInfo> current = takeSnapshot();
+        if (current == null) {
+            return;
+        }
+        int currentGeneration = netUtil.getGeneration();
+        if (currentGeneration != generation) {
+            generation = currentGeneration;
+            if (! isSame(snapshot, current)) {
+                snapshot = current;
+                listener.onNetworkChange(current);
+            }
+        }
+    }
+
+    public List<InterfaceInfo> getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Determine whether two interface snapshots describe the same
+     * network configuration: the same interfaces, in the same order,
+     * with the same flags and addresses.
+     */
+    public static boolean isSame(List<InterfaceInfo> a, List<InterfaceInfo> b) {
+        if ((a == null) || (b == null)) {
+            return (a == b);
+        }
+        if (a.size() != b.size()) {
+            return false;
+        }
+        Iterator<InterfaceInfo> ia = a.iterator();
+        Iterator<InterfaceInfo> ib = b.iterator();
+        while (ia.hasNext()) {
+            if (! ia.next().isSame(ib.next())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private List<InterfaceInfo> takeSnapshot() {
+        try {
+            return netUtil.getNetworkInformation(true);
+        } catch (NetInfoException e) {
+            Log.w(TAG, "cannot take network snapshot: "+e.getMessage());
+            return null;
+        }
+    }
+
+    private void schedulePoll() {
+        if (pollInterval > 0) {
+            handler.postDelayed(pollRunnable, pollInterval);
+        }
+    }
+
+    private Runnable pollRunnable = new Runnable() {
+        public void run() {
+            if (running) {
+                check();
+                schedulePoll();
+            }
+        }
+    };
+
+    private BroadcastReceiver connectivityReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            check();
+        }
+    };
+
+}
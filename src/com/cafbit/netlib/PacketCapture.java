@@ -0,0 +1,369 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cafbit.netlib;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A bounded ring holding the most recent datagrams sent and received,
+ * which can be written to a pcap file for offline analysis (e.g. with
+ * Wireshark).  All slots are allocated up front, and recording a
+ * datagram only copies its payload into the next slot, so the ring is
+ * cheap enough to leave enabled.
+ *
+ * Since only UDP payloads are available to us, each datagram is
+ * written with synthesized IPv4/IPv6 and UDP headers using the raw-IP
+ * link type.  The classic pcap format has no per-packet interface
+ * field, so the interface names are only available via the ring
+ * accessors.
+ * @author simmons
+ */
+public class PacketCapture {
+
+    public static final int DIRECTION_IN = 0;
+    public static final int DIRECTION_OUT = 1;
+
+    public static final int DEFAULT_SLOTS = 256;
+    public static final int DEFAULT_SNAP_LENGTH = 1500;
+
+    private static final int PCAP_MAGIC = 0xA1B2C3D4;
+    private static final int LINKTYPE_RAW = 101;
+    private static final int IPV4_HEADER = 20;
+    private static final int IPV6_HEADER = 40;
+    private static final int UDP_HEADER = 8;
+    private static final int RECORD_HEADER = 16;
+
+    private final int slots;
+    private final int snapLength;
+    private final byte[][] data;
+    private final int[] lengths;
+    private final int[] originalLengths;
+    private final long[] timestamps;
+    private final int[] directions;
+    private final InetAddress[] srcAddresses;
+    private final int[] srcPorts;
+    private final InetAddress[] dstAddresses;
+    private final int[] dstPorts;
+    private final String[] interfaceNames;
+    private long count = 0;
+
+    private File errorDumpFile = null;
+    private long errorDumpInterval = 60*1000;
+    private long lastErrorDump = 0;
+
+    public PacketCapture() {
+        this(DEFAULT_SLOTS, DEFAULT_SNAP_LENGTH);
+    }
+
+    public PacketCapture(int slots, int snapLength) {
+        this.slots = slots;
+        this.snapLength = snapLength;
+        data = new byte[slots][snapLength];
+        lengths = new int[slots];
+        originalLengths = new int[slots];
+        timestamps = new long[slots];
+        directions = new int[slots];
+        srcAddresses = new InetAddress[slots];
+        srcPorts = new int[slots];
+        dstAddresses = new InetAddress[slots];
+        dstPorts = new int[slots];
+        interfaceNames = new String[slots];
+    }
+
+    /**
+     * Record a received datagram.
+     */
+    public void recordReceived(DatagramPacket packet, InetAddress localAddress, int localPort, String interfaceName) {
+        record(DIRECTION_IN, packet, packet.getAddress(), packet.getPort(), localAddress, localPort, interfaceName);
+    }
+
+    /**
+     * Record a sent datagram.
+     */
+    public void recordSent(DatagramPacket packet, InetAddress localAddress, int localPort, String interfaceName) {
+        record(DIRECTION_OUT, packet, localAddress, localPort, packet.getAddress(), packet.getPort(), interfaceName);
+    }
+
+    private synchronized void record(
+            int direction,
+            DatagramPacket packet,
+            InetAddress srcAddress, int srcPort,
+            InetAddress dstAddress, int dstPort,
+            String interfaceName
+    ) {
+        int slot = (int)(count % slots);
+        int length = packet.getLength();
+        int captured = (length > snapLength) ? snapLength : length;
+        System.arraycopy(packet.getData(), packet.getOffset(), data[slot], 0, captured);
+        lengths[slot] = captured;
+        originalLengths[slot] = length;
+        timestamps[slot] = System.currentTimeMillis();
+        directions[slot] = direction;
+        srcAddresses[slot] = srcAddress;
+        srcPorts[slot] = srcPort;
+        dstAddresses[slot] = dstAddress;
+        dstPorts[slot] = dstPort;
+        interfaceNames[slot] = interfaceName;
+        count++;
+    }
+
+    /**
+     * Return the total number of datagrams recorded, including
+     * those which have since been overwritten.
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized void clear() {
+        count = 0;
+        for (int i=0; i<slots; i++) {
+            srcAddresses[i] = null;
+            dstAddresses[i] = null;
+            interfaceNames[i] = null;
+        }
+    }
+
+    /**
+     * Return the interface name recorded with the n-th oldest datagram
+     * currently held in the ring.
+     */
+    public synchronized String getInterfaceName(int n) {
+        return interfaceNames[slotOf(n)];
+    }
+
+    /**
+     * Return the direction (DIRECTION_IN or DIRECTION_OUT) recorded with
+     * the n-th oldest datagram currently held in the ring.
+     */
+    public synchronized int getDirection(int n) {
+        return directions[slotOf(n)];
+    }
+
+    public synchronized int size() {
+        return (int)Math.min(count, slots);
+    }
+
+    private int slotOf(int n) {
+        long first = Math.max(0, count - slots);
+        return (int)((first + n) % slots);
+    }
+
+    // error dumps
+
+    /**
+     * Arrange for the ring to be written to the given file when a
+     * packet cannot be handled, at most once per interval.  A null
+     * file disables dumping on error.
+     */
+    public synchronized void setErrorDumpFile(File file, long minIntervalMillis) {
+        this.errorDumpFile = file;
+        this.errorDumpInterval = minIntervalMillis;
+    }
+
+    /**
+     * Dump the ring to the error dump file, if one is configured and
+     * the minimum interval since the last error dump has passed.
+     */
+    public void dumpOnError() {
+        File file;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if ((errorDumpFile == null) || ((lastErrorDump != 0) && ((now - lastErrorDump) < errorDumpInterval))) {
+                return;
+            }
+            lastErrorDump = now;
+            file = errorDumpFile;
+        }
+        try {
+            dump(file);
+            NetLog.log(NetLog.WARN, "capture.dump", "wrote packet capture to "+file);
+        } catch (IOException e) {
+            NetLog.log(NetLog.WARN, "capture.dump", "cannot write packet capture to "+file, e);
+        }
+    }
+
+    // pcap output
+
+    /**
+     * Write the contents of the ring, oldest first, to a pcap file.
+     * The records are rendered into a buffer while holding the ring's
+     * lock, and the buffer is written to the file afterwards, so
+     * recording is only blocked for the duration of a memory copy.
+     */
+    public void dump(File file) throws IOException {
+        ByteBuffer buffer = render();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            FileChannel channel = out.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private synchronized ByteBuffer render() {
+        int n = size();
+        int total = 24;
+        for (int i=0; i<n; i++) {
+            int slot = slotOf(i);
+            total += RECORD_HEADER + ipHeaderLength(slot) + UDP_HEADER + lengths[slot];
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(total);
+
+        // global header
+        buffer.putInt(PCAP_MAGIC);
+        buffer.putShort((short)2); // major version
+        buffer.putShort((short)4); // minor version
+        buffer.putInt(0); // timezone offset
+        buffer.putInt(0); // timestamp accuracy
+        buffer.putInt(snapLength + IPV6_HEADER + UDP_HEADER);
+        buffer.putInt(LINKTYPE_RAW);
+
+        for (int i=0; i<n; i++) {
+            renderRecord(buffer, slotOf(i));
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private int ipHeaderLength(int slot) {
+        return isIPv6(slot) ? IPV6_HEADER : IPV4_HEADER;
+    }
+
+    /**
+     * Determine the family of a record from its remote address, since
+     * the local address may be a wildcard of either family.
+     */
+    private boolean isIPv6(int slot) {
+        InetAddress remote = (directions[slot] == DIRECTION_IN) ? srcAddresses[slot] : dstAddresses[slot];
+        return (remote != null) && (remote.getAddress().length == 16);
+    }
+
+    private void renderRecord(ByteBuffer buffer, int slot) {
+        boolean ipv6 = isIPv6(slot);
+        int headers = (ipv6 ? IPV6_HEADER : IPV4_HEADER) + UDP_HEADER;
+        byte[] src = addressBytes(srcAddresses[slot], ipv6);
+        byte[] dst = addressBytes(dstAddresses[slot], ipv6);
+        int udpLength = UDP_HEADER + originalLengths[slot];
+
+        // record header
+        long timestamp = timestamps[slot];
+        buffer.putInt((int)(timestamp / 1000));
+        buffer.putInt((int)((timestamp % 1000) * 1000));
+        buffer.putInt(headers + lengths[slot]);
+        buffer.putInt(headers + originalLengths[slot]);
+
+        // ip header
+        if (ipv6) {
+            buffer.putInt(0x60000000); // version, traffic class, flow label
+            buffer.putShort((short)udpLength);
+            buffer.put((byte)17); // next header: UDP
+            buffer.put((byte)255); // hop limit
+            buffer.put(src);
+            buffer.put(dst);
+        } else {
+            int start = buffer.position();
+            buffer.put((byte)0x45); // version, IHL
+            buffer.put((byte)0); // TOS
+            buffer.putShort((short)(IPV4_HEADER + udpLength));
+            buffer.putShort((short)0); // identification
+            buffer.putShort((short)0x4000); // don't fragment
+            buffer.put((byte)255); // TTL
+            buffer.put((byte)17); // protocol: UDP
+            buffer.putShort((short)0); // checksum (filled in below)
+            buffer.put(src);
+            buffer.put(dst);
+            long sum = 0;
+            for (int i=0; i<IPV4_HEADER; i+=2) {
+                sum += buffer.getShort(start+i) & 0xFFFF;
+            }
+            buffer.putShort(start+10, (short)~fold(sum));
+        }
+
+        // udp header
+        int udpStart = buffer.position();
+        buffer.putShort((short)srcPorts[slot]);
+        buffer.putShort((short)dstPorts[slot]);
+        buffer.putShort((short)udpLength);
+        buffer.putShort((short)0); // checksum (optional for IPv4)
+        buffer.put(data[slot], 0, lengths[slot]);
+
+        // IPv6 requires a UDP checksum.  (It can only be computed
+        // if the whole payload was captured.)
+        if (ipv6 && (lengths[slot] == originalLengths[slot])) {
+            long sum = 0;
+            sum += checksumBytes(src, 0, src.length);
+            sum += checksumBytes(dst, 0, dst.length);
+            sum += udpLength;
+            sum += 17;
+            sum += checksumBuffer(buffer, udpStart, udpLength);
+            int checksum = ~fold(sum) & 0xFFFF;
+            if (checksum == 0) {
+                checksum = 0xFFFF;
+            }
+            buffer.putShort(udpStart+6, (short)checksum);
+        }
+    }
+
+    private static byte[] addressBytes(InetAddress address, boolean ipv6) {
+        byte[] bytes = (address == null) ? null : address.getAddress();
+        int length = ipv6 ? 16 : 4;
+        if ((bytes == null) || (bytes.length != length)) {
+            // unknown, or a different family than the source
+            return new byte[length];
+        }
+        return bytes;
+    }
+
+    private static long checksumBytes(byte[] bytes, int offset, int length) {
+        long sum = 0;
+        for (int i=0; i<length; i+=2) {
+            int hi = bytes[offset+i] & 0xFF;
+            int lo = ((i+1) < length) ? (bytes[offset+i+1] & 0xFF) : 0;
+            sum += (hi << 8) | lo;
+        }
+        return sum;
+    }
+
+    private static long checksumBuffer(ByteBuffer buffer, int offset, int length) {
+        long sum = 0;
+        for (int i=0; i<length; i+=2) {
+            int hi = buffer.get(offset+i) & 0xFF;
+            int lo = ((i+1) < length) ? (buffer.get(offset+i+1) & 0xFF) : 0;
+            sum += (hi << 8) | lo;
+        }
+        return sum;
+    }
+
+    private static int fold(long sum) {
+        while ((sum >>> 16) != 0) {
+            sum = (sum & 0xFFFF) + (sum >>> 16);
+        }
+        return (int)sum;
+    }
+
+}
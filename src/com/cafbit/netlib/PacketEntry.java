@@ -32,6 +32,8 @@ public abstract class PacketEntry implements Command {
     public int srcPort;
     public InetAddress dst;
     public int dstPort;
+    /** the System.nanoTime() at which this entry was created */
+    public long timestamp = System.nanoTime();
 
     public PacketEntry() {}
     public PacketEntry(DatagramPacket dp, DatagramSocket socket) {
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cafbit.netlib;
+
+/**
+ * A binary trie over 128-bit prefixes which maps each prefix to an
+ * int value, supporting longest-prefix-match lookups.  Nodes are
+ * kept in parallel int arrays rather than as objects, so a lookup
+ * walks at most 128 array entries and allocates nothing.
+ *
+ * This class is not thread-safe for modification.  Populate it
+ * first, and then share it freely for lookups.
+ * @author simmons
+ */
+public class PrefixTrie {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    // node 0 is the root.  a child index of 0 means "no child",
+    // since the root is never anyone's child.
+    private int[] zero = new int[INITIAL_CAPACITY];
+    private int[] one = new int[INITIAL_CAPACITY];
+    private int[] values = new int[INITIAL_CAPACITY];
+    private boolean[] hasValue = new boolean[INITIAL_CAPACITY];
+    private int nodeCount = 1;
+
+    /**
+     * Associate a value with the prefix consisting of the first
+     * prefixLength bits of the 128-bit value hi:lo.
+     */
+    public void put(long hi, long lo, int prefixLength, int value) {
+        if ((prefixLength < 0) || (prefixLength > 128)) {
+            throw new IllegalArgumentException("bad prefix length: "+prefixLength);
+        }
+        int node = 0;
+        for (int i=0; i<prefixLength; i++) {
+            int[] next = (bit(hi, lo, i) == 0) ? zero : one;
+            int child = next[node];
+            if (child == 0) {
+                child = newNode();
+                // the arrays may have been replaced by newNode()
+                next = (bit(hi, lo, i) == 0) ? zero : one;
+                next[node] = child;
+            }
+            node = child;
+        }
+        values[node] = value;
+        hasValue[node] = true;
+    }
+
+    /**
+     * Return the value of the longest prefix matching the 128-bit
+     * value hi:lo, or defaultValue if no prefix matches.
+     */
+    public int lookup(long hi, long lo, int defaultValue) {
+        return lookup(hi, lo, 128, defaultValue);
+    }
+
+    /**
+     * Return the value of the longest prefix, no longer than
+     * maxLength bits, matching the 128-bit value hi:lo.
+     */
+    public int lookup(long hi, long lo, int maxLength, int defaultValue) {
+        int result = hasValue[0] ? values[0] : defaultValue;
+        int node = 0;
+        for (int i=0; i<maxLength; i++) {
+            node = (bit(hi, lo, i) == 0) ? zero[node] : one[node];
+            if (node == 0) {
+                break;
+            }
+            if (hasValue[node]) {
+                result = values[node];
+            }
+        }
+        return result;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    private static int bit(long hi, long lo, int i) {
+        if (i < 64) {
+            return (int)((hi >>> (63-i)) & 1);
+        } else {
+            return (int)((lo >>> (127-i)) & 1);
+        }
+    }
+
+    private int newNode() {
+        if (nodeCount == zero.length) {
+            int capacity = zero.length * 2;
+            zero = grow(zero, capacity);
+            one = grow(one, capacity);
+            values = grow(values, capacity);
+            boolean[] b = new boolean[capacity];
+            System.arraycopy(hasValue, 0, b, 0, hasValue.length);
+            hasValue = b;
+        }
+        return nodeCount++;
+    }
+
+    private static int[] grow(int[] a, int capacity) {
+        int[] b = new int[capacity];
+        System.arraycopy(a, 0, b, 0, a.length);
+        return b;
+    }
+
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cafbit.netlib;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+
+import com.cafbit.netlib.dns.DNSMessage;
+
+/**
+ * A DNS query which has been serialized once, along with the datagram
+ * used to send it.  Each send only patches the message ID into the
+ * encoded bytes, so recurring queries (such as periodic service
+ * browsing) can be sent without any allocation.
+ * @author simmons
+ */
+public class QueryTemplate {
+
+    private final DNSMessage message;
+    private final byte[] data;
+    private final DatagramPacket packet;
+
+    public QueryTemplate(DNSMessage message, InetAddress address, int port) {
+        this.message = message;
+        this.data = message.serialize();
+        this.packet = new DatagramPacket(data, data.length, address, port);
+    }
+
+    public DNSMessage getMessage() {
+        return message;
+    }
+
+    /**
+     * Send the query with the given message ID.  The datagram is
+     * shared, so sends of the same template are serialized.
+     */
+    public synchronized void send(ReceiverThread receiverThread, short messageId) throws IOException {
+        data[0] = (byte)((messageId>>>8) & 0xFF);
+        data[1] = (byte)(messageId & 0xFF);
+        receiverThread.send(packet);
+    }
+
+}
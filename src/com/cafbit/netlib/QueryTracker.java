@@ -0,0 +1,226 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cafbit.netlib;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+
+import com.cafbit.netlib.dns.DNSAnswer;
+import com.cafbit.netlib.dns.DNSComponent;
+import com.cafbit.netlib.dns.DNSMessage;
+import com.cafbit.netlib.dns.DNSName;
+
+import android.os.Handler;
+
+/**
+ * Keep track of outstanding queries, and match incoming messages back
+ * to them.  Each outstanding query is identified by its question (name
+ * and type); a caller asking a question which is already outstanding
+ * shares the existing query's future instead of sending another query.
+ *
+ * Multicast DNS responses normally carry a message ID of zero and may
+ * omit the question, so responses are matched by the names and types
+ * of their answer and additional records, as well as by message ID
+ * when one is present.
+ * @author simmons
+ */
+public class QueryTracker {
+
+    /**
+     * Sends the network query for a newly tracked question.
+     */
+    public interface Sender {
+        public void sendQuery(String name, DNSComponent.Type type, short messageId) throws IOException;
+    }
+
+    private static class Key {
+        private final DNSName name;
+        private final int qtype;
+        Key(DNSName name, DNSComponent.Type type) {
+            this.name = name;
+            this.qtype = type.qtype;
+        }
+        @Override
+        public int hashCode() {
+            return name.hashCode()*31 + qtype;
+        }
+        @Override
+        public boolean equals(Object other) {
+            if (! (other instanceof Key)) {
+                return false;
+            }
+            Key o = (Key)other;
+            return (qtype == o.qtype) && name.equals(o.name);
+        }
+    }
+
+    private class PendingQuery implements Runnable {
+        final Key key;
+        final DNSComponent.Type type;
+        final short messageId;
+        final ResultFuture<List<DNSAnswer>> future = new ResultFuture<List<DNSAnswer>>();
+        Handler timeoutHandler;
+        PendingQuery(Key key, DNSComponent.Type type, short messageId) {
+            this.key = key;
+            this.type = type;
+            this.messageId = messageId;
+        }
+        boolean matches(DNSAnswer answer) {
+            return ((type == DNSComponent.Type.ANY) || (type == answer.type)) &&
+                key.name.equals(answer.getDNSName());
+        }
+        boolean matchesAny(List<DNSAnswer> answers) {
+            for (DNSAnswer answer : answers) {
+                if (matches(answer)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        void collect(List<DNSAnswer> answers, List<DNSAnswer> matched) {
+            for (DNSAnswer answer : answers) {
+                if (matches(answer)) {
+                    matched.add(answer);
+                }
+            }
+        }
+        // timeout
+        public void run() {
+            if (remove(this)) {
+                future.setException(new TimeoutException("no answer for "+key.name));
+            }
+        }
+    }
+
+    private Sender sender;
+    private Map<Key,PendingQuery> pending = new HashMap<Key,PendingQuery>();
+
+    public QueryTracker(Sender sender) {
+        this.sender = sender;
+    }
+
+    /**
+     * Query for records of the given name and type.  If an identical
+     * query is already outstanding, its future is returned and no new
+     * query is sent.  The future completes with the matching answers of
+     * the first response, or fails with a TimeoutException.
+     * @param timeoutHandler the handler on which to run the timeout
+     */
+    public ResultFuture<List<DNSAnswer>> query(
+            String name,
+            DNSComponent.Type type,
+            long timeoutMillis,
+            Handler timeoutHandler
+    ) throws IOException {
+        Key key = new Key(DNSName.of(name), type);
+        PendingQuery query;
+        synchronized (this) {
+            query = pending.get(key);
+            if (query != null) {
+                return query.future;
+            }
+            query = new PendingQuery(key, type, DNSMessage.nextMessageId());
+            query.timeoutHandler = timeoutHandler;
+            pending.put(key, query);
+        }
+        try {
+            sender.sendQuery(name, type, query.messageId);
+        } catch (IOException e) {
+            remove(query);
+            query.future.setException(e);
+            throw e;
+        }
+        timeoutHandler.postDelayed(query, timeoutMillis);
+        return query.future;
+    }
+
+    /**
+     * Complete any outstanding queries answered by the given message.
+     * Only authoritative responses complete queries; the answers
+     * carried in queries are merely another host's known answers.
+     */
+    public void onMessage(DNSMessage message) {
+        if (! (message.isResponse() && message.isAuthoritative())) {
+            return;
+        }
+        List<PendingQuery> matched = null;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            for (PendingQuery query : pending.values()) {
+                boolean match = ((message.getMessageId() != 0) && (message.getMessageId() == query.messageId));
+                if (! match) {
+                    match = query.matchesAny(message.getAnswers()) ||
+                        query.matchesAny(message.getAdditionals());
+                }
+                if (match) {
+                    if (matched == null) {
+                        matched = new ArrayList<PendingQuery>(2);
+                    }
+                    matched.add(query);
+                }
+            }
+            if (matched == null) {
+                return;
+            }
+            for (PendingQuery query : matched) {
+                pending.remove(query.key);
+            }
+        }
+        for (PendingQuery query : matched) {
+            query.timeoutHandler.removeCallbacks(query);
+            List<DNSAnswer> answers = new ArrayList<DNSAnswer>();
+            query.collect(message.getAnswers(), answers);
+            query.collect(message.getAdditionals(), answers);
+            query.future.set(answers);
+        }
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Fail all outstanding queries, e.g. when shutting down.
+     */
+    public void cancelAll() {
+        List<PendingQuery> queries;
+        synchronized (this) {
+            queries = new ArrayList<PendingQuery>(pending.values());
+            pending.clear();
+        }
+        for (PendingQuery query : queries) {
+            query.timeoutHandler.removeCallbacks(query);
+            query.future.cancel(false);
+        }
+    }
+
+    private synchronized boolean remove(PendingQuery query) {
+        if (pending.get(query.key) == query) {
+            pending.remove(query.key);
+            return true;
+        }
+        return false;
+    }
+
+}
@@ -19,6 +19,7 @@ package com.cafbit.netlib;
 
 import java.io.IOException;
 import java.net.DatagramPacket;
+import java.net.NetworkInterface;
 
 public interface ReceiverThread {
     
@@ -31,6 +32,15 @@ public interface ReceiverThread {
      */
     public void send(DatagramPacket packet) throws IOException;
 
+    /**
+     * Move this thread's socket to a different network interface
+     * (or refresh it on the same interface) after the network
+     * configuration has changed, without restarting the thread.
+     * @param networkInterface
+     * @throws IOException
+     */
+    public void rebind(NetworkInterface networkInterface) throws IOException;
+
     /**
      * Ask the receiver thread to quit.
      */
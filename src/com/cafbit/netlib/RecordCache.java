@@ -0,0 +1,269 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cafbit.netlib;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.cafbit.netlib.dns.DNSAnswer;
+import com.cafbit.netlib.dns.DNSComponent;
+import com.cafbit.netlib.dns.DNSName;
+
+import android.os.SystemClock;
+
+/**
+ * A thread-safe cache of the resource records seen on the network,
+ * indexed by name (compared without regard to case).  Each record is
+ * held until its TTL runs out; a record received again with the same
+ * rdata (compared in canonical form, with any names uncompressed) only
+ * has its expiry extended, and a record received with a TTL
+ * of zero (an mDNS "goodbye") is removed.
+ *
+ * Since every record passes through the cache, it is also where
+ * changes are detected.  Each record's rdata hash is kept, so a
+ * repeated announcement is recognized cheaply, and callers may collect
+ * a RecordEvent for every semantic change: a new record, a unique
+ * record with changed rdata, a refresh, a goodbye, or an expiry.
+ *
+ * The methods synchronize on the cache itself, so a caller may hold
+ * its lock to make several calls, and the handling of their events,
+ * atomic with respect to other threads.
+ * @author simmons
+ */
+public class RecordCache {
+
+    public static final int DEFAULT_MAX_NAMES = 1024;
+
+    /**
+     * Records of a unique name and type received within this interval
+     * of each other do not flush each other (RFC 6762 section 10.2).
+     */
+    private static final long FLUSH_GRACE = 1000;
+
+    private static class CachedRecord {
+        DNSAnswer answer;
+        int rdataHash;
+        long received;
+        long expires;
+        CachedRecord(DNSAnswer answer, int rdataHash, long now) {
+            this.answer = answer;
+            this.rdataHash = rdataHash;
+            refresh(answer, now);
+        }
+        void refresh(DNSAnswer answer, long now) {
+            this.answer = answer;
+            this.received = now;
+            this.expires = now + (answer.ttl & 0xFFFFFFFFL) * 1000;
+        }
+    }
+
+    private final int maxNames;
+    private Map<DNSName,List<CachedRecord>> records = new HashMap<DNSName,List<CachedRecord>>();
+
+    public RecordCache() {
+        this(DEFAULT_MAX_NAMES);
+    }
+
+    /**
+     * @param maxNames the number of names above which expired records
+     *        are purged from the whole cache
+     */
+    public RecordCache(int maxNames) {
+        this.maxNames = maxNames;
+    }
+
+    /**
+     * Add or refresh a record.
+     */
+    public void put(DNSAnswer answer) {
+        put(answer, SystemClock.elapsedRealtime(), null);
+    }
+
+    /**
+     * Add or refresh all of the given records.
+     */
+    public void putAll(List<DNSAnswer> answers) {
+        putAll(answers, null);
+    }
+
+    /**
+     * Add or refresh all of the given records, and add an event for
+     * each resulting change to the events list, if it is not null.
+     */
+    public void putAll(List<DNSAnswer> answers, List<RecordEvent> events) {
+        if (answers.isEmpty()) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        for (DNSAnswer answer : answers) {
+            put(answer, now, events);
+        }
+    }
+
+    private synchronized void put(DNSAnswer answer, long now, List<RecordEvent> events) {
+        DNSName key = answer.getDNSName();
+        List<CachedRecord> list = records.get(key);
+        if (list == null) {
+            if (answer.ttl == 0) {
+                return;
+            }
+            if (records.size() >= maxNames) {
+                expire(now, events);
+            }
+            list = new ArrayList<CachedRecord>(4);
+            records.put(key, list);
+        }
+
+        // is this record already known?  the canonical rdata is
+        // compared, since names in PTR and SRV rdata may be compressed
+        // differently in each packet.
+        int typeCode = answer.getTypeCode();
+        byte[] rdata = answer.getCanonicalRdata();
+        int rdataHash = Arrays.hashCode(rdata);
+        CachedRecord known = null;
+        for (int i=0; i<list.size(); i++) {
+            CachedRecord record = list.get(i);
+            if ((record.answer.getTypeCode() == typeCode) &&
+                    (record.rdataHash == rdataHash) &&
+                    Arrays.equals(record.answer.getCanonicalRdata(), rdata)) {
+                known = record;
+                break;
+            }
+        }
+
+        if (answer.ttl == 0) {
+            if (known != null) {
+                list.remove(known);
+                event(events, RecordEvent.Kind.REMOVED, known.answer, null);
+            }
+        } else {
+            // a unique record flushes older records of its name and type
+            DNSAnswer previous = null;
+            if (answer.cacheFlush) {
+                for (Iterator<CachedRecord> it = list.iterator(); it.hasNext(); ) {
+                    CachedRecord record = it.next();
+                    if ((record != known) && (record.answer.getTypeCode() == typeCode) &&
+                            ((now - record.received) > FLUSH_GRACE)) {
+                        it.remove();
+                        if ((known == null) && (previous == null)) {
+                            previous = record.answer;
+                        } else {
+                            event(events, RecordEvent.Kind.REMOVED, record.answer, null);
+                        }
+                    }
+                }
+            }
+            if (known != null) {
+                known.refresh(answer, now);
+                event(events, RecordEvent.Kind.REFRESHED, answer, null);
+            } else {
+                list.add(new CachedRecord(answer, rdataHash, now));
+                if (previous != null) {
+                    event(events, RecordEvent.Kind.UPDATED, answer, previous);
+                } else {
+                    event(events, RecordEvent.Kind.ADDED, answer, null);
+                }
+            }
+        }
+        if (list.isEmpty()) {
+            records.remove(key);
+        }
+    }
+
+    private static void event(List<RecordEvent> events, RecordEvent.Kind kind, DNSAnswer record, DNSAnswer previous) {
+        if (events != null) {
+            events.add(new RecordEvent(kind, record, previous));
+        }
+    }
+
+    /**
+     * Return the unexpired records of the given name and type, or an
+     * empty list.  A type of ANY returns records of all types.
+     */
+    public List<DNSAnswer> get(String name, DNSComponent.Type type) {
+        return get(DNSName.of(name), type);
+    }
+
+    /**
+     * Return the unexpired records of the given name and type, or an
+     * empty list.  A type of ANY returns records of all types.
+     */
+    public synchronized List<DNSAnswer> get(DNSName key, DNSComponent.Type type) {
+        List<CachedRecord> list = records.get(key);
+        if (list == null) {
+            return new ArrayList<DNSAnswer>(0);
+        }
+        long now = SystemClock.elapsedRealtime();
+        List<DNSAnswer> answers = new ArrayList<DNSAnswer>(list.size());
+        for (CachedRecord record : list) {
+            if ((record.expires > now) &&
+                    ((type == DNSComponent.Type.ANY) || (type == record.answer.type))) {
+                answers.add(record.answer);
+            }
+        }
+        return answers;
+    }
+
+    /**
+     * Remove all expired records, and return an EXPIRED event for each.
+     */
+    public synchronized List<RecordEvent> expire() {
+        List<RecordEvent> events = new ArrayList<RecordEvent>(0);
+        expire(SystemClock.elapsedRealtime(), events);
+        return events;
+    }
+
+    /**
+     * Remove all expired records.
+     */
+    public synchronized void purge() {
+        expire(SystemClock.elapsedRealtime(), null);
+    }
+
+    private void expire(long now, List<RecordEvent> events) {
+        for (Iterator<List<CachedRecord>> lists = records.values().iterator(); lists.hasNext(); ) {
+            List<CachedRecord> list = lists.next();
+            for (Iterator<CachedRecord> it = list.iterator(); it.hasNext(); ) {
+                CachedRecord record = it.next();
+                if (record.expires <= now) {
+                    it.remove();
+                    event(events, RecordEvent.Kind.EXPIRED, record.answer, null);
+                }
+            }
+            if (list.isEmpty()) {
+                lists.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        records.clear();
+    }
+
+    /**
+     * Return the number of names with cached records.
+     */
+    public synchronized int size() {
+        return records.size();
+    }
+
+}
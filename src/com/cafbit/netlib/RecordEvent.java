@@ -0,0 +1,117 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cafbit.netlib;
+
+import java.util.Arrays;
+
+import com.cafbit.netlib.dns.DNSAnswer;
+import com.cafbit.netlib.dns.DNSName;
+import com.cafbit.netlib.ipc.Coalescable;
+import com.cafbit.netlib.ipc.Command;
+
+/**
+ * A change to the set of records known on the network, as detected by
+ * the RecordCache.  Events about the same record (name, type, and
+ * canonical rdata) coalesce into their net effect when batched.
+ * @author simmons
+ */
+public class RecordEvent implements Coalescable {
+
+    public enum Kind {
+        /** a record not previously known */
+        ADDED,
+        /** a unique (cache-flush) record whose rdata has changed */
+        UPDATED,
+        /** a known record seen again, extending its lifetime */
+        REFRESHED,
+        /** a record withdrawn by a goodbye (TTL of zero) */
+        REMOVED,
+        /** a record whose TTL ran out */
+        EXPIRED
+    }
+
+    public final Kind kind;
+    public final DNSAnswer record;
+    /** for UPDATED events, the record which was replaced */
+    public final DNSAnswer previous;
+    public final long timestamp = System.nanoTime();
+
+    public RecordEvent(Kind kind, DNSAnswer record, DNSAnswer previous) {
+        this.kind = kind;
+        this.record = record;
+        this.previous = previous;
+    }
+
+    private static class Key {
+        final DNSName name;
+        final int qtype;
+        final byte[] rdata;
+        final int hash;
+        Key(DNSAnswer record) {
+            name = record.getDNSName();
+            qtype = record.getTypeCode();
+            rdata = record.getCanonicalRdata();
+            hash = (name.hashCode()*31 + qtype)*31 + Arrays.hashCode(rdata);
+        }
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+        @Override
+        public boolean equals(Object other) {
+            if (! (other instanceof Key)) {
+                return false;
+            }
+            Key o = (Key)other;
+            return (hash == o.hash) && (qtype == o.qtype) &&
+                name.equals(o.name) && Arrays.equals(rdata, o.rdata);
+        }
+    }
+
+    public Object getCoalesceKey() {
+        return new Key(record);
+    }
+
+    /**
+     * Merge with an earlier event about the same record.  A record
+     * added and then withdrawn cancels out; a record added and then
+     * refreshed is still just added; a record withdrawn and then seen
+     * again was merely refreshed.  Otherwise the later event stands.
+     */
+    public Command coalesce(Command earlier) {
+        Kind earlierKind = ((RecordEvent)earlier).kind;
+        boolean gone = (kind == Kind.REMOVED) || (kind == Kind.EXPIRED);
+        boolean wasGone = (earlierKind == Kind.REMOVED) || (earlierKind == Kind.EXPIRED);
+        if (earlierKind == Kind.ADDED) {
+            return gone ? null : new RecordEvent(Kind.ADDED, record, null);
+        } else if ((earlierKind == Kind.UPDATED) && (kind == Kind.REFRESHED)) {
+            return new RecordEvent(Kind.UPDATED, record, ((RecordEvent)earlier).previous);
+        } else if (wasGone && (kind == Kind.ADDED)) {
+            return new RecordEvent(Kind.REFRESHED, record, null);
+        }
+        return this;
+    }
+
+    public String toString() {
+        if (previous != null) {
+            return kind+" "+record+" (was "+previous.getRdataString()+")";
+        }
+        return kind+" "+record;
+    }
+
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cafbit.netlib;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A Future which is completed explicitly, by whoever produces the
+ * result, and which can notify listeners on completion.  (This plays
+ * the role of CompletableFuture, which is not available on Android.)
+ *
+ * Listeners are called on the thread which completes the future, or
+ * immediately on the calling thread if it has already completed, so
+ * they should do little work.
+ * @author simmons
+ */
+public class ResultFuture<V> implements Future<V> {
+
+    public interface Listener<V> {
+        public void onComplete(ResultFuture<V> future);
+    }
+
+    private boolean done = false;
+    private boolean cancelled = false;
+    private V value;
+    private Throwable throwable;
+    private List<Listener<V>> listeners = null;
+
+    /**
+     * Complete the future with a value.
+     * @return false if the future had already completed
+     */
+    public boolean set(V value) {
+        List<Listener<V>> toNotify;
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            this.value = value;
+            toNotify = complete();
+        }
+        notifyListeners(toNotify);
+        return true;
+    }
+
+    /**
+     * Complete the future with an exception.
+     * @return false if the future had already completed
+     */
+    public boolean setException(Throwable throwable) {
+        List<Listener<V>> toNotify;
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            this.throwable = throwable;
+            toNotify = complete();
+        }
+        notifyListeners(toNotify);
+        return true;
+    }
+
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        List<Listener<V>> toNotify;
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            cancelled = true;
+            toNotify = complete();
+        }
+        notifyListeners(toNotify);
+        return true;
+    }
+
+    public void addListener(Listener<V> listener) {
+        synchronized (this) {
+            if (! done) {
+                if (listeners == null) {
+                    listeners = new ArrayList<Listener<V>>(2);
+                }
+                listeners.add(listener);
+                return;
+            }
+        }
+        listener.onComplete(this);
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    public synchronized V get() throws InterruptedException, ExecutionException {
+        while (! done) {
+            wait();
+        }
+        return result();
+    }
+
+    public synchronized V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (! done) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException();
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return result();
+    }
+
+    /**
+     * Return the value if the future completed successfully, or
+     * null otherwise.  Does not block.
+     */
+    public synchronized V getNow() {
+        return (done && (throwable == null) && (! cancelled)) ? value : null;
+    }
+
+    private V result() throws ExecutionException {
+        if (cancelled) {
+            throw new CancellationException();
+        }
+        if (throwable != null) {
+            throw new ExecutionException(throwable);
+        }
+        return value;
+    }
+
+    private List<Listener<V>> complete() {
+        done = true;
+        notifyAll();
+        List<Listener<V>> toNotify = listeners;
+        listeners = null;
+        return toNotify;
+    }
+
+    private void notifyListeners(List<Listener<V>> toNotify) {
+        if (toNotify != null) {
+            for (Listener<V> listener : toNotify) {
+                listener.onComplete(this);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,414 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cafbit.netlib;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.cafbit.netlib.dns.DNSAnswer;
+import com.cafbit.netlib.dns.DNSComponent;
+import com.cafbit.netlib.dns.DNSMessage;
+import com.cafbit.netlib.dns.DNSName;
+import com.cafbit.netlib.dns.DNSQuestion;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+/**
+ * Browse for the instances of a DNS-SD service type, and resolve each
+ * one to a ServiceInfo (see RFC 6763).
+ *
+ * Each instance discovered by a PTR record moves through a small state
+ * machine: it waits for its SRV and TXT records, then for the address
+ * records of the SRV target, and is then resolved.  The record cache is
+ * the source of truth: instances are those with a live PTR record in
+ * the cache, and an instance is resolved exactly while its SRV, TXT,
+ * and address records are cached.  So the SRV/TXT/address records
+ * which responders put in the additional section resolve an instance
+ * with no further queries, and an instance is removed when its PTR, or
+ * any record it was resolved from, says goodbye or expires.  (Expiry
+ * is noticed at the next periodic query.)  Whatever is still missing
+ * after a response is processed is requested for all instances at
+ * once, in as few multi-question packets as possible, so resolving
+ * many instances takes one round trip rather than one per instance.
+ *
+ * Listener methods are called on the network manager thread, in the
+ * order the changes were made, and should return quickly.
+ * @author simmons
+ */
+public class ServiceBrowser implements MDNSReceiverThread.MessageListener {
+
+    public interface Listener {
+        /**
+         * Called when an instance is first resolved, and again
+         * whenever its resolved data changes.
+         */
+        public void serviceResolved(ServiceInfo serviceInfo);
+        /**
+         * Called when a resolved instance goes away, or loses any of
+         * the records it was resolved from.
+         */
+        public void serviceRemoved(ServiceInfo serviceInfo);
+    }
+
+    public static final long INITIAL_QUERY_INTERVAL = 1000;
+    public static final long MAX_QUERY_INTERVAL = 60*60*1000;
+    /** the minimum time between queries for the same instance's records */
+    public static final long MIN_REQUERY_INTERVAL = 1000;
+    /** the largest query packet we build */
+    private static final int MAX_QUERY_SIZE = 1400;
+
+    private static final int STATE_NEEDS_SRV_TXT = 0;
+    private static final int STATE_NEEDS_ADDRESS = 1;
+    private static final int STATE_RESOLVED = 2;
+
+    private static class Instance {
+        final DNSName name;
+        int state = STATE_NEEDS_SRV_TXT;
+        DNSName host;
+        ServiceInfo resolved;
+        long lastQueried = 0;
+        Instance(DNSName name) {
+            this.name = name;
+        }
+    }
+
+    // a change to report to the listener
+    private static class Change {
+        final boolean removed;
+        final ServiceInfo serviceInfo;
+        Change(boolean removed, ServiceInfo serviceInfo) {
+            this.removed = removed;
+            this.serviceInfo = serviceInfo;
+        }
+    }
+
+    private final MDNSReceiverThread receiver;
+    private final DNSName serviceType;
+    private final Listener listener;
+    private final Handler handler;
+    private final QueryTemplate browseQuery;
+
+    private Map<DNSName,Instance> instances = new HashMap<DNSName,Instance>();
+    private boolean running = false;
+    private long queryInterval = INITIAL_QUERY_INTERVAL;
+
+    private Runnable browseTask = new Runnable() {
+        public void run() {
+            browse();
+        }
+    };
+
+    public ServiceBrowser(MDNSReceiverThread receiver, String serviceType, Listener listener) {
+        this.receiver = receiver;
+        this.serviceType = DNSName.of(serviceType);
+        this.listener = listener;
+        this.handler = receiver.getNetworkManagerThread().getHandler();
+        this.browseQuery = receiver.createQueryTemplate(serviceType, DNSComponent.Type.PTR);
+    }
+
+    /**
+     * Start browsing.  The service type is queried immediately, and
+     * then at doubling intervals (RFC 6762 section 5.2).
+     */
+    public void start() {
+        synchronized (this) {
+            if (running) {
+                return;
+            }
+            running = true;
+            queryInterval = INITIAL_QUERY_INTERVAL;
+        }
+        receiver.addMessageListener(this);
+        handler.post(browseTask);
+    }
+
+    public void stop() {
+        synchronized (this) {
+            running = false;
+        }
+        receiver.removeMessageListener(this);
+        handler.removeCallbacks(browseTask);
+    }
+
+    /**
+     * Return the instances resolved so far.
+     */
+    public synchronized List<ServiceInfo> getServices() {
+        List<ServiceInfo> services = new ArrayList<ServiceInfo>();
+        for (Instance instance : instances.values()) {
+            if (instance.resolved != null) {
+                services.add(instance.resolved);
+            }
+        }
+        return services;
+    }
+
+    /**
+     * Query for the service type, along with any records still missing
+     * for known instances, and schedule the next query.  The service
+     * type query is pre-encoded, since it is sent periodically.
+     */
+    private void browse() {
+        List<DNSQuestion> questions = new ArrayList<DNSQuestion>();
+        synchronized (this) {
+            if (! running) {
+                return;
+            }
+            List<Change> changes = new ArrayList<Change>();
+            reconcile(new ArrayList<Instance>(), changes);
+            update(new ArrayList<Instance>(instances.values()), questions, changes);
+            deliver(changes);
+
+            handler.postDelayed(browseTask, queryInterval);
+            queryInterval = Math.min(queryInterval * 2, MAX_QUERY_INTERVAL);
+        }
+        try {
+            receiver.sendQuery(browseQuery);
+        } catch (IOException e) {
+            NetLog.log(NetLog.WARN, "dnssd.query", "cannot send query for "+serviceType, e);
+        }
+        sendQuestions(questions);
+    }
+
+    /**
+     * Called on the receiver (or parser) thread for each response.
+     */
+    public void onMessage(DNSMessage message) {
+        List<DNSQuestion> questions = new ArrayList<DNSQuestion>();
+        synchronized (this) {
+            if (! running) {
+                return;
+            }
+            // find the instances this message concerns.  the message's
+            // records are already in the cache, so only the affected
+            // instances need to be looked at.
+            Set<Instance> touched = new LinkedHashSet<Instance>();
+            Set<DNSName> hosts = new HashSet<DNSName>();
+            List<Change> changes = new ArrayList<Change>();
+            boolean ptrs = touch(message.getAnswers(), touched, hosts);
+            ptrs |= touch(message.getAdditionals(), touched, hosts);
+            if (ptrs) {
+                reconcile(touched, changes);
+            }
+            if (! hosts.isEmpty()) {
+                for (Instance instance : instances.values()) {
+                    if ((instance.host != null) && hosts.contains(instance.host)) {
+                        touched.add(instance);
+                    }
+                }
+            }
+            update(touched, questions, changes);
+            deliver(changes);
+        }
+        sendQuestions(questions);
+    }
+
+    /**
+     * Collect the instances and hosts named by the records, and return
+     * true if there are PTR records for the service type.
+     */
+    private boolean touch(List<DNSAnswer> records, Set<Instance> touched, Set<DNSName> hosts) {
+        boolean ptrs = false;
+        for (DNSAnswer record : records) {
+            DNSName name = record.getDNSName();
+            if (record.type == DNSComponent.Type.PTR) {
+                if (name.equals(serviceType)) {
+                    ptrs = true;
+                    Instance instance = instances.get(((DNSAnswer.PTR)record.data).getTarget());
+                    if (instance != null) {
+                        touched.add(instance);
+                    }
+                }
+            } else if ((record.type == DNSComponent.Type.SRV) || (record.type == DNSComponent.Type.TXT)) {
+                Instance instance = instances.get(name);
+                if (instance != null) {
+                    touched.add(instance);
+                }
+            } else if ((record.type == DNSComponent.Type.A) || (record.type == DNSComponent.Type.AAAA)) {
+                hosts.add(name);
+            }
+        }
+        return ptrs;
+    }
+
+    /**
+     * Bring the instances in line with the PTR records in the cache:
+     * add (and touch) an instance for each new PTR, and drop instances
+     * whose PTR has said goodbye or expired.
+     */
+    private void reconcile(Collection<Instance> touched, List<Change> changes) {
+        Set<DNSName> live = new HashSet<DNSName>();
+        for (DNSAnswer ptr : receiver.getRecordCache().get(serviceType, DNSComponent.Type.PTR)) {
+            if (ptr.ttl == 0) {
+                continue;
+            }
+            DNSName name = ((DNSAnswer.PTR)ptr.data).getTarget();
+            live.add(name);
+            if (! instances.containsKey(name)) {
+                Instance instance = new Instance(name);
+                instances.put(name, instance);
+                touched.add(instance);
+            }
+        }
+        for (Iterator<Instance> it = instances.values().iterator(); it.hasNext(); ) {
+            Instance instance = it.next();
+            if (! live.contains(instance.name)) {
+                it.remove();
+                touched.remove(instance);
+                if (instance.resolved != null) {
+                    changes.add(new Change(true, instance.resolved));
+                }
+            }
+        }
+    }
+
+    /**
+     * Advance each instance as far as the cached records allow, and
+     * collect the questions for whatever is still missing.  A resolved
+     * instance which has lost any of its records is reported removed.
+     */
+    private void update(Iterable<Instance> toUpdate, List<DNSQuestion> questions, List<Change> changes) {
+        RecordCache cache = receiver.getRecordCache();
+        long now = SystemClock.elapsedRealtime();
+        Set<DNSName> hostsQueried = new HashSet<DNSName>();
+        for (Instance instance : toUpdate) {
+            List<DNSAnswer> srvs = cache.get(instance.name, DNSComponent.Type.SRV);
+            List<DNSAnswer> txts = cache.get(instance.name, DNSComponent.Type.TXT);
+            List<InetAddress> addresses = new ArrayList<InetAddress>();
+            DNSAnswer.SRV srv = null;
+            if (srvs.isEmpty() || txts.isEmpty()) {
+                instance.state = STATE_NEEDS_SRV_TXT;
+            } else {
+                srv = (DNSAnswer.SRV)srvs.get(0).data;
+                instance.host = srv.getTarget();
+                addAddresses(cache.get(instance.host, DNSComponent.Type.A), addresses);
+                addAddresses(cache.get(instance.host, DNSComponent.Type.AAAA), addresses);
+                instance.state = addresses.isEmpty() ? STATE_NEEDS_ADDRESS : STATE_RESOLVED;
+            }
+
+            if (instance.state == STATE_RESOLVED) {
+                ServiceInfo serviceInfo = new ServiceInfo(
+                    instance.name, serviceType, instance.host,
+                    srv.port & 0xFFFF, srv.priority & 0xFFFF, srv.weight & 0xFFFF,
+                    ((DNSAnswer.TXT)txts.get(0).data).lines, addresses
+                );
+                if (! serviceInfo.equals(instance.resolved)) {
+                    instance.resolved = serviceInfo;
+                    changes.add(new Change(false, serviceInfo));
+                }
+                continue;
+            }
+
+            if (instance.resolved != null) {
+                changes.add(new Change(true, instance.resolved));
+                instance.resolved = null;
+            }
+            if ((now - instance.lastQueried) >= MIN_REQUERY_INTERVAL) {
+                instance.lastQueried = now;
+                if (instance.state == STATE_NEEDS_SRV_TXT) {
+                    if (srvs.isEmpty()) {
+                        questions.add(new DNSQuestion(DNSComponent.Type.SRV, instance.name));
+                    }
+                    if (txts.isEmpty()) {
+                        questions.add(new DNSQuestion(DNSComponent.Type.TXT, instance.name));
+                    }
+                } else if (hostsQueried.add(instance.host)) {
+                    // instances sharing a host share its questions
+                    questions.add(new DNSQuestion(DNSComponent.Type.A, instance.host));
+                    questions.add(new DNSQuestion(DNSComponent.Type.AAAA, instance.host));
+                }
+            }
+        }
+    }
+
+    private static void addAddresses(List<DNSAnswer> records, List<InetAddress> addresses) {
+        for (DNSAnswer record : records) {
+            if (record.data instanceof DNSAnswer.A) {
+                addresses.add(((DNSAnswer.A)record.data).address);
+            }
+        }
+    }
+
+    /**
+     * Pass the changes to the listener on the network manager thread.
+     * This is called with the lock held, so changes made on different
+     * threads are delivered in the order they were made.
+     */
+    private void deliver(final List<Change> changes) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        handler.post(new Runnable() {
+            public void run() {
+                synchronized (ServiceBrowser.this) {
+                    if (! running) {
+                        return;
+                    }
+                }
+                for (Change change : changes) {
+                    if (change.removed) {
+                        listener.serviceRemoved(change.serviceInfo);
+                    } else {
+                        listener.serviceResolved(change.serviceInfo);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Send the questions in as few packets as possible.  These vary
+     * from one call to the next, so they are not pre-encoded.
+     */
+    private void sendQuestions(List<DNSQuestion> questions) {
+        List<DNSQuestion> batch = new ArrayList<DNSQuestion>();
+        int size = 12; // header
+        for (DNSQuestion question : questions) {
+            int length = question.length();
+            if (((size + length) > MAX_QUERY_SIZE) && ! batch.isEmpty()) {
+                sendBatch(batch);
+                batch.clear();
+                size = 12;
+            }
+            batch.add(question);
+            size += length;
+        }
+        if (! batch.isEmpty()) {
+            sendBatch(batch);
+        }
+    }
+
+    private void sendBatch(List<DNSQuestion> batch) {
+        try {
+            receiver.sendMessage(new DNSMessage(batch));
+        } catch (IOException e) {
+            NetLog.log(NetLog.WARN, "dnssd.query", "cannot send query for "+serviceType, e);
+        }
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cafbit.netlib;
+
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.cafbit.netlib.dns.DNSName;
+
+/**
+ * A fully resolved DNS-SD service instance: its SRV target and port,
+ * its TXT strings, and the addresses of its host.
+ * @author simmons
+ */
+public class ServiceInfo {
+
+    /** the full instance name, e.g. "Printer._ipp._tcp.local" */
+    public final DNSName name;
+    /** the service type, e.g. "_ipp._tcp.local" */
+    public final DNSName serviceType;
+    public final DNSName host;
+    public final int port;
+    public final int priority;
+    public final int weight;
+    public final List<String> txt;
+    public final List<InetAddress> addresses;
+
+    public ServiceInfo(
+            DNSName name,
+            DNSName serviceType,
+            DNSName host,
+            int port,
+            int priority,
+            int weight,
+            List<String> txt,
+            List<InetAddress> addresses
+    ) {
+        this.name = name;
+        this.serviceType = serviceType;
+        this.host = host;
+        this.port = port;
+        this.priority = priority;
+        this.weight = weight;
+        this.txt = Collections.unmodifiableList(txt);
+        this.addresses = Collections.unmodifiableList(addresses);
+    }
+
+    /**
+     * Return the user-visible instance name (the first label).
+     */
+    public String getInstanceName() {
+        return name.getLabel(0);
+    }
+
+    /**
+     * Return the TXT strings as key/value attributes.  A string
+     * without '=' is a boolean attribute, and maps to null.
+     */
+    public Map<String,String> getAttributes() {
+        Map<String,String> attributes = new LinkedHashMap<String,String>();
+        for (String line : txt) {
+            int equals = line.indexOf('=');
+            if (equals < 0) {
+                if (line.length() > 0) {
+                    attributes.put(line, null);
+                }
+            } else if (equals > 0) {
+                attributes.put(line.substring(0, equals), line.substring(equals+1));
+            }
+        }
+        return attributes;
+    }
+
+    @Override
+    public int hashCode() {
+        return name.hashCode()*31 + port;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (! (other instanceof ServiceInfo)) {
+            return false;
+        }
+        ServiceInfo o = (ServiceInfo)other;
+        return name.equals(o.name) &&
+            host.equals(o.host) &&
+            (port == o.port) &&
+            (priority == o.priority) &&
+            (weight == o.weight) &&
+            txt.equals(o.txt) &&
+            addresses.equals(o.addresses);
+    }
+
+    public String toString() {
+        return name+" "+host+":"+port+" "+addresses+" "+txt;
+    }
+
+}
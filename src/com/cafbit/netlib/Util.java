@@ -17,48 +17,86 @@
 
 package com.cafbit.netlib;
 
+import java.io.IOException;
+
 /**
  * Various mundate utility methods.
  * @author simmons
  */
 public class Util {
 
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+    private static final int ROW_CHARS = 6 + 16*3 + 16 + 1;
+
     public static String hexDump(byte[] bytes) {
         return hexDump(bytes, 0, bytes.length);
     }
 
     public static String hexDump(byte[] bytes, int offset, int length) {
-        StringBuilder sb = new StringBuilder();
+        StringBuilder sb = new StringBuilder(((length+15)/16) * ROW_CHARS);
+        hexDump(sb, bytes, offset, length, 0);
+        return sb.toString();
+    }
+
+    /**
+     * Append a hex dump of the given window of bytes to a StringBuilder,
+     * which may be reused between calls.  Rows are labeled starting at
+     * labelOffset, so a window into a larger packet can be labeled with
+     * its position in that packet.
+     */
+    public static void hexDump(StringBuilder sb, byte[] bytes, int offset, int length, int labelOffset) {
+        try {
+            hexDump((Appendable)sb, bytes, offset, length, labelOffset);
+        } catch (IOException e) {
+            // StringBuilder does not throw IOException.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Write a hex dump of the given window of bytes to an Appendable
+     * (such as a Writer).  The output is table-driven and writes one
+     * character at a time, so nothing is allocated per row or byte.
+     */
+    public static void hexDump(Appendable out, byte[] bytes, int offset, int length, int labelOffset) throws IOException {
         for (int i=0; i<length; i+=16) {
             int rowSize = length - i;
             if (rowSize > 16) { rowSize = 16; }
-            byte[] row = new byte[rowSize];
-            System.arraycopy(bytes, offset+i, row, 0, rowSize);
-            hexDumpRow(sb, row, i);
+            hexDumpRow(out, bytes, offset+i, rowSize, labelOffset+i);
         }
-        return sb.toString();
     }
 
-    private static void hexDumpRow(StringBuilder sb, byte[] bytes, int offset) {
-        sb.append(String.format("%04X: ",offset));
+    private static void hexDumpRow(Appendable out, byte[] bytes, int offset, int rowSize, int label) throws IOException {
+        // row label: at least four hex digits
+        int digits = 4;
+        while ((digits < 8) && ((label >>> (digits*4)) != 0)) {
+            digits++;
+        }
+        for (int shift=(digits-1)*4; shift>=0; shift-=4) {
+            out.append(HEX_DIGITS[(label >>> shift) & 0xF]);
+        }
+        out.append(':').append(' ');
+
+        // hex bytes
         for (int i=0; i<16; i++) {
-            if (bytes.length > i) {
-                sb.append(String.format("%02X ",bytes[i]));
+            if (i < rowSize) {
+                int v = bytes[offset+i] & 0xFF;
+                out.append(HEX_DIGITS[v >>> 4]).append(HEX_DIGITS[v & 0xF]).append(' ');
             } else {
-                sb.append("   ");
+                out.append(' ').append(' ').append(' ');
             }
         }
-        for (int i=0; i<16; i++) {
-            if (bytes.length > i) {
-                char c = '.';
-                int v = (int)bytes[i];
-                if ((v > 0x20) && (v < 0x7F)) {
-                    c = (char)v;
-                }
-                sb.append(c);
+
+        // printable characters
+        for (int i=0; i<rowSize; i++) {
+            int v = (int)bytes[offset+i];
+            if ((v > 0x20) && (v < 0x7F)) {
+                out.append((char)v);
+            } else {
+                out.append('.');
             }
         }
-        sb.append('\n');
+        out.append('\n');
     }
 
 }
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cafbit.netlib.dns;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A DNSBuffer backed by a java.nio.ByteBuffer instead of a byte array,
+ * so that direct or memory-mapped buffers can be parsed and written
+ * without first copying them to the heap.  All accesses are absolute
+ * gets and puts on a big-endian view, so the position, limit, and
+ * byte order of the caller's buffer are never changed.
+ *
+ * The offset fields of this class are absolute indices into the
+ * ByteBuffer, and the inherited bytes field is null.  Use
+ * DNSBuffer.wrap() to obtain the best DNSBuffer for a given ByteBuffer.
+ * @author simmons
+ */
+public class ByteBufferDNSBuffer extends DNSBuffer {
+
+    private ByteBuffer buffer;
+    private byte[] scratch = new byte[64];
+
+    /**
+     * Wrap the remaining bytes of the supplied buffer (from its
+     * position to its limit).
+     */
+    public ByteBufferDNSBuffer(ByteBuffer buffer) {
+        this(buffer, buffer.position(), buffer.remaining());
+    }
+
+    /**
+     * Wrap the given range of the supplied buffer.
+     */
+    public ByteBufferDNSBuffer(ByteBuffer buffer, int start, int length) {
+        super(null, start, length);
+        this.buffer = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+    }
+
+    public ByteBuffer getByteBuffer() {
+        return buffer;
+    }
+
+    @Override
+    public int peekByteAsInt(int index) {
+        return buffer.get(index) & 0xFF;
+    }
+
+    // read methods
+
+    @Override
+    public byte readByte() {
+        return buffer.get(offset++);
+    }
+
+    @Override
+    public int readByteAsInt() {
+        return buffer.get(offset++) & 0xFF;
+    }
+
+    @Override
+    public byte[] readBytes(int numBytes) {
+        byte[] ba = new byte[numBytes];
+        copyOut(offset, ba, numBytes);
+        offset += numBytes;
+        return ba;
+    }
+
+    @Override
+    public byte[] getBytes(int index, int numBytes) {
+        byte[] ba = new byte[numBytes];
+        copyOut(index, ba, numBytes);
+        return ba;
+    }
+
+    @Override
+    public short readShort() {
+        short s = buffer.getShort(offset);
+        offset += 2;
+        return s;
+    }
+
+    @Override
+    public int readShortAsInt() {
+        int i = buffer.getShort(offset) & 0xFFFF;
+        offset += 2;
+        return i;
+    }
+
+    @Override
+    public int readInteger() {
+        int i = buffer.getInt(offset);
+        offset += 4;
+        return i;
+    }
+
+    @Override
+    public String readString(int numBytes) {
+        if (scratch.length < numBytes) {
+            scratch = new byte[numBytes];
+        }
+        copyOut(offset, scratch, numBytes);
+        offset += numBytes;
+        return bytesToString(scratch, 0, numBytes);
+    }
+
+    // write methods
+
+    @Override
+    public void writeByte(byte b) {
+        buffer.put(offset++, b);
+    }
+
+    @Override
+    public void writeBytes(byte[] ba) {
+        for (int i=0; i<ba.length; i++) {
+            buffer.put(offset++, ba[i]);
+        }
+    }
+
+    @Override
+    public void writeShort(short s) {
+        buffer.putShort(offset, s);
+        offset += 2;
+    }
+
+    @Override
+    public void writeInteger(int i) {
+        buffer.putInt(offset, i);
+        offset += 4;
+    }
+
+    @Override
+    public void writeString(String string) {
+        writeBytes(stringToBytes(string));
+    }
+
+    private void copyOut(int index, byte[] target, int numBytes) {
+        for (int i=0; i<numBytes; i++) {
+            target[i] = buffer.get(index+i);
+        }
+    }
+
+    public String toString() {
+        return String.format("bytebuffer[0x%X]",(offset-start));
+    }
+
+}
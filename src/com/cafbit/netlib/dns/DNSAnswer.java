@@ -33,9 +33,29 @@ public class DNSAnswer extends DNSComponent {
     public String name;
     public Type type;
     public int ttl;
+    /**
+     * The mDNS cache-flush bit: this record is unique, and replaces
+     * any other records of the same name and type.
+     */
+    public boolean cacheFlush;
     public byte[] rdata;
     public Data data;
     
+    // the type code as received, kept for types which parse as OTHER
+    private int typeCode;
+    
+    // the name as a DNSName, and the string it was derived from
+    private DNSName dnsName;
+    private String dnsNameSource;
+    
+    // the wire format of the name and rdata, cached for repeated
+    // serialization, and what the rdata was encoded from
+    private byte[] encodedName;
+    private byte[] encodedRdata;
+    private Data encodedData;
+    private Object encodedSource;
+    private long encodedFields;
+    
     public abstract class Data {};
     public class A extends Data {
         public InetAddress address;
@@ -64,9 +84,23 @@ public class DNSAnswer extends DNSComponent {
     }
     public class PTR extends Data {
         public String name;
+        private DNSName target;
         public PTR(String name) {
             this.name = name;
         }
+        PTR(DNSName target) {
+            this.target = target;
+            this.name = target.toString();
+        }
+        /**
+         * Return the target name as a DNSName.
+         */
+        public DNSName getTarget() {
+            if ((target == null) || (! target.toString().equals(name))) {
+                target = DNSName.of(name);
+            }
+            return target;
+        }
         public String toString() {
             return name;
         }
@@ -76,12 +110,26 @@ public class DNSAnswer extends DNSComponent {
         public short weight;
         public short port;
         public String name;
+        private DNSName target;
         public SRV(short priority, short weight, short port, String name) {
             this.priority = priority;
             this.weight = weight;
             this.port = port;
             this.name = name;
         }
+        SRV(short priority, short weight, short port, DNSName target) {
+            this(priority, weight, port, target.toString());
+            this.target = target;
+        }
+        /**
+         * Return the target host name as a DNSName.
+         */
+        public DNSName getTarget() {
+            if ((target == null) || (! target.toString().equals(name))) {
+                target = DNSName.of(name);
+            }
+            return target;
+        }
         public String toString() {
             return ""+priority+"/"+weight+"/"+port+" "+name;
         }
@@ -91,21 +139,106 @@ public class DNSAnswer extends DNSComponent {
         parse(buffer);
     }
 
+    /**
+     * Return the name as a DNSName, deriving it again only when the
+     * name field has changed.
+     */
+    public DNSName getDNSName() {
+        if ((dnsName == null) || (dnsNameSource != name)) {
+            dnsName = DNSName.of(name);
+            dnsNameSource = name;
+        }
+        return dnsName;
+    }
+
+    /**
+     * Return the numeric record type.  This is the type code received
+     * on the wire for types which parse as OTHER, so such records keep
+     * their type when serialized again.
+     */
+    public int getTypeCode() {
+        return (type == Type.OTHER) ? typeCode : type.qtype;
+    }
+
+    /**
+     * Return the rdata in canonical form: with any names in PTR and SRV
+     * rdata uncompressed, so the same record received in differently
+     * laid out packets has the same canonical rdata.  The array must
+     * not be modified.
+     */
+    public byte[] getCanonicalRdata() {
+        encode();
+        return encodedRdata;
+    }
+
     @Override
     public int length() {
-        // TODO: implement
-        return 0;
+        encode();
+        // name, type, class, ttl, rdlength, rdata
+        return encodedName.length + 10 + encodedRdata.length;
     }
 
     @Override
     public void serialize(DNSBuffer buffer) {
-        // TODO: implement
+        encode();
+        buffer.checkRemaining(encodedName.length + 10 + encodedRdata.length);
+        buffer.writeBytes(encodedName);
+        buffer.writeShort(getTypeCode());
+        buffer.writeShort(cacheFlush ? 0x8001 : 1); // class (IN)
+        buffer.writeInteger(ttl);
+        buffer.writeRdata(encodedRdata);
+    }
+    
+    /**
+     * Build the wire format of this answer, again only if the name,
+     * data, or rdata have changed since it was last built.  Names within
+     * PTR and SRV rdata may have been compressed relative to the packet
+     * they were received in, so they are re-encoded without compression.
+     */
+    private void encode() {
+        byte[] name = getDNSName().getWire();
+        Object source;
+        long fields = 0;
+        if (data instanceof PTR) {
+            source = ((PTR)data).getTarget();
+        } else if (data instanceof SRV) {
+            SRV srv = (SRV)data;
+            source = srv.getTarget();
+            fields = ((long)(srv.priority & 0xFFFF) << 32) |
+                ((long)(srv.weight & 0xFFFF) << 16) | (srv.port & 0xFFFF);
+        } else {
+            source = rdata;
+        }
+        if ((encodedName == name) && (encodedData == data) &&
+                (encodedSource == source) && (encodedFields == fields)) {
+            return;
+        }
+
+        if (data instanceof PTR) {
+            encodedRdata = ((DNSName)source).getWire();
+        } else if (data instanceof SRV) {
+            SRV srv = (SRV)data;
+            byte[] target = ((DNSName)source).getWire();
+            encodedRdata = new byte[6 + target.length];
+            DNSBuffer b = new DNSBuffer(encodedRdata);
+            b.writeShort(srv.priority);
+            b.writeShort(srv.weight);
+            b.writeShort(srv.port);
+            b.writeBytes(target);
+        } else {
+            encodedRdata = rdata;
+        }
+        encodedName = name;
+        encodedData = data;
+        encodedSource = source;
+        encodedFields = fields;
     }
 
     private void parse(DNSBuffer buffer) {
-        name = buffer.readName();
-        short typeNumber = buffer.readShort();
-        type = Type.getType(typeNumber);
+        dnsName = buffer.readDNSName();
+        name = dnsNameSource = dnsName.toString();
+        typeCode = buffer.readShortAsInt();
+        type = Type.getType(typeCode);
         
         // the most significant bit of the rrclass is special
         // in Multicast DNS -- it is used as a "cache flush" bit,
@@ -115,14 +248,36 @@ public class DNSAnswer extends DNSComponent {
         //   http://tools.ietf.org/html/draft-cheshire-dnsext-multicastdns-05
         //   section 11.3
         int aclass = buffer.readShortAsInt();
-        //boolean cacheFlush = ((aclass & 0x8000) != 0);
+        cacheFlush = ((aclass & 0x8000) != 0);
         aclass = aclass & 0x7FFF;
         if (aclass != 1) {
             throw new DNSException("only class IN supported.  (got "+aclass+")");
         }
         
         ttl = buffer.readInteger();
-        rdata = buffer.readRdata();
+        int rdlength = buffer.readShortAsInt();
+        int rdataStart = buffer.offset;
+        int rdataEnd = rdataStart + rdlength;
+        
+        // names within PTR and SRV rdata may be compressed, so they
+        // are read in place before the raw rdata is copied.
+        if (type.equals(Type.PTR)) {
+            data = new PTR(buffer.readDNSName());
+            if (buffer.offset != rdataEnd) {
+                throw new DNSException("bad PTR rdata");
+            }
+        } else if (type.equals(Type.SRV)) {
+            short priority = buffer.readShort();
+            short weight = buffer.readShort();
+            short port = buffer.readShort();
+            DNSName target = buffer.readDNSName();
+            if (buffer.offset != rdataEnd) {
+                throw new DNSException("bad SRV rdata");
+            }
+            data = new SRV(priority, weight, port, target);
+        }
+        rdata = buffer.getBytes(rdataStart, rdlength);
+        buffer.offset = rdataEnd;
         
         if (type.equals(Type.A) || type.equals(Type.AAAA)) {
             try {
@@ -133,38 +288,12 @@ public class DNSAnswer extends DNSComponent {
         } else if (type.equals(Type.TXT)) {
             List<String> lines = new ArrayList<String>();
             for (int i=0; i<rdata.length; ) {
-                int length = rdata[i++];
+                int length = rdata[i++] & 0xFF;
                 String line = DNSBuffer.bytesToString(rdata, i, length);
                 lines.add(line);
                 i += length;
             }
             data = new TXT(lines);
-        } else if (type.equals(Type.PTR)) {
-            // rewind the buffer to the beginning of the
-            // name (just after the 16-bit name-length field)
-            // and reparse the name to allow for compression
-            // offsets.
-            int oldoffset = buffer.offset;
-            buffer.offset -= rdata.length;
-            data = new PTR(buffer.readName());
-            if (oldoffset != buffer.offset) {
-                throw new DNSException("bad PTR rdata");
-            }
-        } else if (type.equals(Type.SRV)) {
-            short priority = (short)((rdata[0]&0xFF)<<8 | (rdata[1]&0xFF));
-            short weight = (short)((rdata[2]&0xFF)<<8 | (rdata[3]&0xFF));
-            short port = (short)((rdata[4]&0xFF)<<8 | (rdata[5]&0xFF));
-            // rewind the buffer to the beginning of the
-            // name (just after the 16-bit name-length field)
-            // and reparse the name to allow for compression
-            // offsets.
-            int oldoffset = buffer.offset;
-            buffer.offset -= rdata.length-6;
-            String name = buffer.readName();
-            if (oldoffset != buffer.offset) {
-                throw new DNSException("bad PTR rdata");
-            }
-            data = new SRV(priority, weight, port, name);
         }
 
     }
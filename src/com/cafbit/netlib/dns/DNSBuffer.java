@@ -18,6 +18,7 @@
 package com.cafbit.netlib.dns;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.util.Stack;
 
 /**
@@ -32,6 +33,18 @@ public class DNSBuffer {
     public int start;
     public int length;
     public int offset;
+    
+    // scratch space for readDNSName()
+    private static final int MAX_PENDING = 16;
+    private byte[] nameScratch;
+    private int[] pendingTargets;
+    private int[] pendingPositions;
+    
+    // decoded suffixes, by the offset at which they were found
+    private static final int MEMO_SIZE = 64;
+    private int[] memoOffsets;
+    private DNSName[] memoNames;
+    private int memoCount = 0;
 
     public DNSBuffer(int length) {
         bytes = new byte[length];
@@ -54,6 +67,24 @@ public class DNSBuffer {
         this.offset = start;
     }
     
+    /**
+     * Return a DNSBuffer for the remaining bytes of a ByteBuffer.  If the
+     * ByteBuffer is backed by an accessible array, the array is used
+     * directly; otherwise (e.g. for direct or memory-mapped buffers) a
+     * ByteBufferDNSBuffer is returned.  Either way, no bytes are copied.
+     */
+    public static DNSBuffer wrap(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            return new DNSBuffer(
+                buffer.array(),
+                buffer.arrayOffset() + buffer.position(),
+                buffer.remaining()
+            );
+        } else {
+            return new ByteBufferDNSBuffer(buffer);
+        }
+    }
+    
     //
     
     public void reset() {
@@ -70,6 +101,14 @@ public class DNSBuffer {
         }
     }
     
+    /**
+     * Return the unsigned byte at the given absolute index, without
+     * moving the offset.
+     */
+    public int peekByteAsInt(int index) {
+        return bytes[index] & 0xFF;
+    }
+    
     // read methods
     
     public byte readByte() {
@@ -88,6 +127,16 @@ public class DNSBuffer {
         return ba;
     }
 
+    /**
+     * Copy bytes starting at the given absolute index, without moving
+     * the offset.
+     */
+    public byte[] getBytes(int index, int numBytes) {
+        byte[] ba = new byte[numBytes];
+        System.arraycopy(bytes, index, ba, 0, numBytes);
+        return ba;
+    }
+
     public short readShort() {
         byte hi = bytes[offset++];
         byte lo = bytes[offset++];
@@ -143,18 +192,140 @@ public class DNSBuffer {
     }
 
     public String readName() {
-        StringBuilder sb = new StringBuilder();
-        boolean needDot = false;
-        String label;
-        while ((label = readLabel()) != null) {
-            if (needDot) {
-                sb.append('.');
+        return readDNSName().toString();
+    }
+    
+    /**
+     * Read a possibly-compressed name, and leave the offset just past
+     * it.  The labels are gathered directly into the name's wire
+     * format, without creating a string for each label.  As in
+     * DNSValidator, each compression pointer must lead backwards from
+     * the segment containing it.
+     *
+     * The suffix found at each compression target is remembered for
+     * the life of this buffer, so a suffix such as "_tcp.local" which
+     * many records point to is decoded only once, and a name which is
+     * entirely a pointer to an earlier name shares that DNSName.  This
+     * assumes the bytes are not modified while they are being read.
+     */
+    public DNSName readDNSName() {
+        if (nameScratch == null) {
+            nameScratch = new byte[DNSName.MAX_LENGTH];
+            pendingTargets = new int[MAX_PENDING];
+            pendingPositions = new int[MAX_PENDING];
+        }
+        byte[] scratch = nameScratch;
+        int n = 0;
+        int pending = 0;
+        int p = offset;
+        int segmentStart = p;
+        int next = -1;
+        while (true) {
+            int length = peekByteAsInt(p);
+            if (length == 0) {
+                break;
+            }
+            int hiBits = (length>>>6) & 0x03;
+            if (hiBits == 3) {
+                int target = start + (((length & 0x3F) << 8) | peekByteAsInt(p+1));
+                if (target >= segmentStart) {
+                    throw new DNSException("bad compression pointer");
+                }
+                if (next < 0) {
+                    next = p + 2;
+                }
+                DNSName suffix = memoGet(target);
+                if (suffix != null) {
+                    if (n == 0) {
+                        // the whole name is a previously decoded suffix
+                        for (int i=0; i<pending; i++) {
+                            memoPut(pendingTargets[i], suffix);
+                        }
+                        offset = next;
+                        return suffix;
+                    }
+                    byte[] wire = suffix.getWire();
+                    if ((n + wire.length) > scratch.length) {
+                        throw new DNSException("name too long");
+                    }
+                    System.arraycopy(wire, 0, scratch, n, wire.length - 1);
+                    n += wire.length - 1;
+                    break;
+                }
+                if (pending < MAX_PENDING) {
+                    pendingTargets[pending] = target;
+                    pendingPositions[pending] = n;
+                    pending++;
+                }
+                p = segmentStart = target;
+                continue;
+            } else if (hiBits > 0) {
+                throw new DNSException("unknown label compression format");
+            }
+            if ((n + 1 + length + 1) > scratch.length) {
+                throw new DNSException("name too long");
+            }
+            scratch[n++] = (byte)length;
+            for (int i=1; i<=length; i++) {
+                scratch[n++] = (byte)peekByteAsInt(p+i);
+            }
+            p += 1 + length;
+        }
+        scratch[n++] = 0;
+        offset = (next < 0) ? p + 1 : next;
+        
+        byte[] wire = new byte[n];
+        System.arraycopy(scratch, 0, wire, 0, n);
+        DNSName name = new DNSName(wire);
+        
+        // remember the suffixes found at the compression targets
+        for (int i=0; i<pending; i++) {
+            int position = pendingPositions[i];
+            if (position == 0) {
+                memoPut(pendingTargets[i], name);
             } else {
-                needDot = true;
+                byte[] suffix = new byte[n - position];
+                System.arraycopy(wire, position, suffix, 0, suffix.length);
+                memoPut(pendingTargets[i], new DNSName(suffix));
             }
-            sb.append(label);
         }
-        return sb.toString();
+        return name;
+    }
+    
+    // the suffix memo: an open-addressed table from the offset of a
+    // compression target to the name found there.
+    
+    private DNSName memoGet(int target) {
+        if (memoOffsets == null) {
+            return null;
+        }
+        int mask = MEMO_SIZE - 1;
+        for (int i = target & mask; memoOffsets[i] != 0; i = (i + 1) & mask) {
+            if (memoOffsets[i] == target + 1) {
+                return memoNames[i];
+            }
+        }
+        return null;
+    }
+    
+    private void memoPut(int target, DNSName name) {
+        if (memoOffsets == null) {
+            memoOffsets = new int[MEMO_SIZE];
+            memoNames = new DNSName[MEMO_SIZE];
+        } else if (memoCount >= (MEMO_SIZE * 3 / 4)) {
+            return;
+        }
+        int mask = MEMO_SIZE - 1;
+        int i = target & mask;
+        while (memoOffsets[i] != 0) {
+            if (memoOffsets[i] == target + 1) {
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        memoOffsets[i] = target + 1;
+        memoNames[i] = name;
+        memoCount++;
     }
     
     public byte[] readRdata() {
@@ -209,11 +380,11 @@ public class DNSBuffer {
     }
     
     public void writeName(String name) {
-        String[] labels = nameToLabels(name);
-        for (int i=0; i<labels.length; i++) {
-            writeLabel(labels[i]);
-        }
-        writeByte((byte) 0); // terminating zero length
+        writeBytes(encodeName(name));
+    }
+    
+    public void writeName(DNSName name) {
+        name.writeTo(this);
     }
     
     public void writeRdata(byte[] rdata) {
@@ -224,12 +395,54 @@ public class DNSBuffer {
     // public utility methods
     
     public static int nameByteLength(String name) {
-        int length = 0;
-        for (String label : nameToLabels(name)) {
-            length++; // label-length octet
-            length += stringToBytes(label).length; // string length in bytes
+        // the encoded length, less the terminating zero length
+        return encodeName(name).length - 1;
+    }
+    
+    /**
+     * Encode a dotted name into its uncompressed wire format: a series
+     * of length-prefixed labels followed by a terminating zero length.
+     * The result may be cached and written repeatedly with writeBytes().
+     */
+    public static byte[] encodeName(String name) {
+        int nameLength = name.length();
+        if ((nameLength > 0) && (name.charAt(nameLength-1) == '.')) {
+            // ignore the trailing dot of a fully-qualified name
+            nameLength--;
         }
-        return length;
+        
+        // encode each label
+        byte[][] labels = new byte[(nameLength/2)+1][];
+        int labelCount = 0;
+        int encodedLength = 1; // terminating zero length
+        int labelStart = 0;
+        while (labelStart < nameLength) {
+            int labelEnd = name.indexOf('.', labelStart);
+            if ((labelEnd == -1) || (labelEnd > nameLength)) {
+                labelEnd = nameLength;
+            }
+            if (labelEnd == labelStart) {
+                throw new DNSException("empty label in name: "+name);
+            }
+            byte[] label = stringToBytes(name.substring(labelStart, labelEnd));
+            if (label.length > 63) {
+                throw new DNSException("label length > 63");
+            }
+            labels[labelCount++] = label;
+            encodedLength += 1 + label.length;
+            labelStart = labelEnd + 1;
+        }
+        
+        // assemble the wire format
+        byte[] encoded = new byte[encodedLength];
+        int offset = 0;
+        for (int i=0; i<labelCount; i++) {
+            encoded[offset++] = (byte) labels[i].length;
+            System.arraycopy(labels[i], 0, encoded, offset, labels[i].length);
+            offset += labels[i].length;
+        }
+        encoded[offset] = 0;
+        return encoded;
     }
 
     public static byte[] stringToBytes(String string) {
@@ -267,10 +480,6 @@ public class DNSBuffer {
     
     // private static utility methods
     
-    private static String[] nameToLabels(String name) {
-        return name.split("\\.");
-    }
-    
     // uncomment if needed
     /*
     private static String labelsToName(String[] labels) {
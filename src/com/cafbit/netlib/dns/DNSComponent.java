@@ -34,13 +34,21 @@ public abstract class DNSComponent {
         Type(int qtype) {
             this.qtype = qtype;
         }
-        public static Type getType(int qtype) {
+        // lookup table for getType(), since values() copies its array
+        private static final Type[] byQtype = new Type[256];
+        static {
+            for (int i=0; i<byQtype.length; i++) {
+                byQtype[i] = OTHER;
+            }
             for (Type type : Type.values()) {
-                if (type.qtype == qtype) {
-                    return type;
-                }
+                byQtype[type.qtype] = type;
+            }
+        }
+        public static Type getType(int qtype) {
+            if ((qtype < 0) || (qtype >= byQtype.length)) {
+                return OTHER;
             }
-            return OTHER;
+            return byQtype[qtype];
         }
     }
     public abstract int length();
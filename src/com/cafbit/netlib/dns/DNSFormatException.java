@@ -0,0 +1,43 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cafbit.netlib.dns;
+
+/**
+ * Thrown when a packet is malformed: truncated, containing bad
+ * compression pointers, or with records that overrun the packet.
+ * @author simmons
+ */
+public class DNSFormatException extends DNSException {
+    private static final long serialVersionUID = -2297469437946720712L;
+    
+    private int offset;
+    
+    public DNSFormatException(String message, int offset) {
+        super(message+" (at offset "+offset+")");
+        this.offset = offset;
+    }
+    
+    /**
+     * Return the offset, relative to the start of the packet, at
+     * which the problem was detected.
+     */
+    public int getOffset() {
+        return offset;
+    }
+    
+}
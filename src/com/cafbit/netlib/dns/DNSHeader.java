@@ -0,0 +1,118 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cafbit.netlib.dns;
+
+/**
+ * Constants and static helpers for the flags word of the 12-byte DNS
+ * header.  The peek methods classify a raw datagram from its header
+ * alone, without parsing or allocating anything, so that unwanted
+ * packets can be dropped before any names are decoded.
+ *
+ * see: http://www.ietf.org/rfc/rfc1035.txt section 4.1.1
+ *
+ * @author simmons
+ */
+public final class DNSHeader {
+
+    public static final int LENGTH = 12;
+
+    public static final int FLAG_QR = 0x8000;
+    public static final int FLAG_AA = 0x0400;
+    public static final int FLAG_TC = 0x0200;
+    public static final int FLAG_RD = 0x0100;
+    public static final int FLAG_RA = 0x0080;
+    private static final int OPCODE_SHIFT = 11;
+    private static final int OPCODE_MASK = 0x7800;
+    private static final int RCODE_MASK = 0x000F;
+
+    public static final int OPCODE_QUERY = 0;
+    public static final int RCODE_NOERROR = 0;
+
+    private DNSHeader() {}
+
+    /**
+     * Return the flags word of the DNS message in the given range of
+     * the packet, or -1 if the range is too short to hold a header.
+     */
+    public static int peekFlags(byte[] packet, int offset, int length) {
+        if (length < LENGTH) {
+            return -1;
+        }
+        return ((packet[offset+2] & 0xFF) << 8) | (packet[offset+3] & 0xFF);
+    }
+
+    /**
+     * Return true if the packet holds a complete header with the QR
+     * bit set, i.e. if it is a response.
+     */
+    public static boolean peekIsResponse(byte[] packet, int offset, int length) {
+        int flags = peekFlags(packet, offset, length);
+        return (flags >= 0) && isResponse(flags);
+    }
+
+    /**
+     * Return the message ID of the DNS message in the given range of
+     * the packet.  The caller must ensure the range holds a header.
+     */
+    public static short peekMessageId(byte[] packet, int offset) {
+        return (short)(((packet[offset] & 0xFF) << 8) | (packet[offset+1] & 0xFF));
+    }
+
+    // flags word accessors
+
+    public static boolean isResponse(int flags) {
+        return (flags & FLAG_QR) != 0;
+    }
+
+    public static boolean isAuthoritative(int flags) {
+        return (flags & FLAG_AA) != 0;
+    }
+
+    public static boolean isTruncated(int flags) {
+        return (flags & FLAG_TC) != 0;
+    }
+
+    public static int getOpcode(int flags) {
+        return (flags & OPCODE_MASK) >>> OPCODE_SHIFT;
+    }
+
+    public static int getRcode(int flags) {
+        return flags & RCODE_MASK;
+    }
+
+    /**
+     * Return a short description of the flags, such as "response AA".
+     */
+    public static String toString(int flags) {
+        StringBuilder sb = new StringBuilder(isResponse(flags) ? "response" : "query");
+        if (getOpcode(flags) != OPCODE_QUERY) {
+            sb.append(" opcode="+getOpcode(flags));
+        }
+        if (isAuthoritative(flags)) {
+            sb.append(" AA");
+        }
+        if (isTruncated(flags)) {
+            sb.append(" TC");
+        }
+        if (getRcode(flags) != RCODE_NOERROR) {
+            sb.append(" rcode="+getRcode(flags));
+        }
+        return sb.toString();
+    }
+
+}
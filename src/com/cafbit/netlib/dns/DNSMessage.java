@@ -17,11 +17,13 @@
 
 package com.cafbit.netlib.dns;
 
+import java.nio.ByteBuffer;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class represents a single DNS message, and is capable
@@ -33,33 +35,103 @@ import java.util.TreeMap;
  */
 public class DNSMessage {
     
-    //private static short nextMessageId = 0;
-    private static short nextMessageId = (short)((System.currentTimeMillis()/100)&0xFFFF);
+    private static final AtomicInteger nextMessageId =
+        new AtomicInteger((int)((System.currentTimeMillis()/100)&0xFFFF));
 
     private short messageId;
+    private int flags;
     private LinkedList<DNSQuestion> questions = new LinkedList<DNSQuestion>();
     private LinkedList<DNSAnswer> answers = new LinkedList<DNSAnswer>();
+    private LinkedList<DNSAnswer> authorities = new LinkedList<DNSAnswer>();
+    private LinkedList<DNSAnswer> additionals = new LinkedList<DNSAnswer>();
 
     /**
      * Construct a DNS host query
      */
     public DNSMessage(String hostname) {
-        messageId = nextMessageId++;
-        questions.add(new DNSQuestion(DNSQuestion.Type.ANY, hostname));
+        this(hostname, DNSQuestion.Type.ANY);
+    }
+    
+    /**
+     * Construct a DNS query for records of the given type
+     */
+    public DNSMessage(String name, DNSComponent.Type type) {
+        messageId = nextMessageId();
+        questions.add(new DNSQuestion(type, name));
+    }
+    
+    /**
+     * Construct a DNS query asking several questions at once
+     */
+    public DNSMessage(List<DNSQuestion> questions) {
+        messageId = nextMessageId();
+        this.questions.addAll(questions);
     }
     
     /**
      * Parse the supplied packet as a DNS message.
      */
     public DNSMessage(byte[] packet) {
-        parse(packet, 0, packet.length);
+        parse(new DNSBuffer(packet, 0, packet.length));
     }
     
     /**
      * Parse the supplied packet as a DNS message.
      */
     public DNSMessage(byte[] packet, int offset, int length) {
-        parse(packet, offset, length);
+        parse(new DNSBuffer(packet, offset, length));
+    }
+    
+    /**
+     * Parse the remaining bytes of the supplied buffer as a DNS
+     * message.  The buffer may be direct or memory-mapped; its
+     * position is not changed.
+     */
+    public DNSMessage(ByteBuffer packet) {
+        parse(DNSBuffer.wrap(packet));
+    }
+    
+    /**
+     * Allocate a message ID for a new query.
+     */
+    public static short nextMessageId() {
+        return (short)nextMessageId.getAndIncrement();
+    }
+    
+    public short getMessageId() {
+        return messageId;
+    }
+    
+    /**
+     * Return the flags word of the header.  See DNSHeader for the
+     * meaning of the individual bits.
+     */
+    public int getFlags() {
+        return flags;
+    }
+    
+    public void setFlags(int flags) {
+        this.flags = flags & 0xFFFF;
+    }
+    
+    public boolean isResponse() {
+        return DNSHeader.isResponse(flags);
+    }
+    
+    public boolean isAuthoritative() {
+        return DNSHeader.isAuthoritative(flags);
+    }
+    
+    public boolean isTruncated() {
+        return DNSHeader.isTruncated(flags);
+    }
+    
+    public int getOpcode() {
+        return DNSHeader.getOpcode(flags);
+    }
+    
+    public int getRcode() {
+        return DNSHeader.getRcode(flags);
     }
     
     public List<DNSQuestion> getQuestions() {
@@ -70,6 +142,22 @@ public class DNSMessage {
         return answers;
     }
     
+    /**
+     * Return the records of the authority section.  (In Multicast DNS,
+     * these are the records proposed by a host which is probing.)
+     */
+    public List<DNSAnswer> getAuthorities() {
+        return authorities;
+    }
+    
+    /**
+     * Return the records of the additional section, such as the SRV,
+     * TXT, and address records which accompany a PTR answer.
+     */
+    public List<DNSAnswer> getAdditionals() {
+        return additionals;
+    }
+    
     public int length() {
         int length = 12; // header length
         for (DNSQuestion q : questions) {
@@ -78,19 +166,53 @@ public class DNSMessage {
         for (DNSAnswer a : answers) {
             length += a.length();
         }
+        for (DNSAnswer a : authorities) {
+            length += a.length();
+        }
+        for (DNSAnswer a : additionals) {
+            length += a.length();
+        }
         return length;
     }
     
     public byte[] serialize() {
         DNSBuffer buffer = new DNSBuffer(length());
+        serializeTo(buffer);
+        return buffer.bytes;
+    }
+    
+    /**
+     * Write this message into a ByteBuffer at its current position,
+     * advancing the position past the message.  This allows a single
+     * send buffer to be reused for every message.
+     * @return the length of the message in bytes
+     */
+    public int serializeTo(ByteBuffer packet) {
+        DNSBuffer buffer = DNSBuffer.wrap(packet);
+        int length = serializeTo(buffer);
+        packet.position(packet.position() + length);
+        return length;
+    }
+    
+    /**
+     * Write this message into a DNSBuffer at its current offset,
+     * leaving the offset just past the message.  The names of the
+     * questions and answers are encoded once and cached, so repeated
+     * serialization of the same message does not re-encode them.
+     * @return the length of the message in bytes
+     * @throws DNSException if the buffer is too small
+     */
+    public int serializeTo(DNSBuffer buffer) {
+        int startOffset = buffer.offset;
+        buffer.checkRemaining(length());
         
         // header
         buffer.writeShort(messageId);
-        buffer.writeShort(0); // flags
+        buffer.writeShort(flags);
         buffer.writeShort(questions.size()); // qdcount
         buffer.writeShort(answers.size()); // ancount
-        buffer.writeShort(0); // nscount
-        buffer.writeShort(0); // arcount
+        buffer.writeShort(authorities.size()); // nscount
+        buffer.writeShort(additionals.size()); // arcount
         
         // questions
         for (DNSQuestion question : questions) {
@@ -102,19 +224,29 @@ public class DNSMessage {
             answer.serialize(buffer);
         }
         
-        return buffer.bytes;
+        // authority and additional records
+        for (DNSAnswer answer : authorities) {
+            answer.serialize(buffer);
+        }
+        for (DNSAnswer answer : additionals) {
+            answer.serialize(buffer);
+        }
+        
+        return buffer.offset - startOffset;
     }
     
-    private void parse(byte[] packet, int offset, int length) {
-        DNSBuffer buffer = new DNSBuffer(packet, offset, length);
+    private void parse(DNSBuffer buffer) {
+        // check the whole message up front, so the reads below
+        // can't run off the end of the packet.
+        DNSValidator.validate(buffer);
         
         // header
         messageId = buffer.readShort();
-        buffer.readShort(); // flags
-        int qdcount = buffer.readShort();
-        int ancount = buffer.readShort();
-        buffer.readShort(); // nscount
-        buffer.readShort(); // arcount
+        flags = buffer.readShortAsInt();
+        int qdcount = buffer.readShortAsInt();
+        int ancount = buffer.readShortAsInt();
+        int nscount = buffer.readShortAsInt();
+        int arcount = buffer.readShortAsInt();
         
         // questions
         questions.clear();
@@ -127,6 +259,18 @@ public class DNSMessage {
         for (int i=0; i<ancount; i++) {
             answers.add(new DNSAnswer(buffer));
         }
+        
+        // authority records
+        authorities.clear();
+        for (int i=0; i<nscount; i++) {
+            authorities.add(new DNSAnswer(buffer));
+        }
+        
+        // additional records
+        additionals.clear();
+        for (int i=0; i<arcount; i++) {
+            additionals.add(new DNSAnswer(buffer));
+        }
     }
     
     public String toString() {
@@ -155,6 +299,14 @@ public class DNSMessage {
                 sb.append("  A: "+a.type.toString()+" "+a.getRdataString()+"\n");
             }
         }
+        
+        // authority and additional records
+        for (DNSAnswer a : authorities) {
+            sb.append("NS: "+a.toString()+"\n");
+        }
+        for (DNSAnswer a : additionals) {
+            sb.append("AR: "+a.toString()+"\n");
+        }
 
         return sb.toString();
     }
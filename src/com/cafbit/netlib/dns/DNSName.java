@@ -0,0 +1,229 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cafbit.netlib.dns;
+
+/**
+ * An immutable domain name, held in its uncompressed wire format (a
+ * series of length-prefixed labels and a terminating zero length).
+ * Names compare equal without regard to ASCII case, as DNS requires,
+ * and the case-folded hash is computed once, so a DNSName is a cheap
+ * key for caches and indexes.  The wire format can be written out
+ * directly when serializing.
+ * @author simmons
+ */
+public final class DNSName {
+
+    public static final int MAX_LENGTH = 255;
+
+    public static final DNSName ROOT = new DNSName(new byte[] { 0 });
+
+    private final byte[] wire;
+    private final byte[] labelOffsets;
+    private final int hash;
+    private String string;
+
+    /**
+     * Build a name from its uncompressed wire format, which the caller
+     * must not modify afterwards.
+     * @throws DNSException if the wire format is invalid
+     */
+    DNSName(byte[] wire) {
+        if ((wire.length == 0) || (wire.length > MAX_LENGTH)) {
+            throw new DNSException("bad name length: "+wire.length);
+        }
+        // find the labels, and compute the case-folded hash
+        int labelCount = 0;
+        int i = 0;
+        while (wire[i] != 0) {
+            int length = wire[i] & 0xFF;
+            if ((length > 63) || ((i + 1 + length) >= wire.length)) {
+                throw new DNSException("bad label in name");
+            }
+            labelCount++;
+            i += 1 + length;
+        }
+        if (i != wire.length-1) {
+            throw new DNSException("bad name termination");
+        }
+        int h = 0;
+        labelOffsets = new byte[labelCount];
+        labelCount = 0;
+        for (i=0; i<wire.length; i++) {
+            h = 31*h + toLower(wire[i]);
+        }
+        for (i=0; wire[i] != 0; i += (wire[i] & 0xFF) + 1) {
+            labelOffsets[labelCount++] = (byte)i;
+        }
+        this.wire = wire;
+        this.hash = h;
+    }
+
+    /**
+     * Return the name for the given dotted string.  A trailing dot is
+     * ignored.
+     * @throws DNSException if the name is not valid
+     */
+    public static DNSName of(String name) {
+        DNSName dnsName = new DNSName(DNSBuffer.encodeName(name));
+        if (! name.endsWith(".")) {
+            dnsName.string = name;
+        }
+        return dnsName;
+    }
+
+    /**
+     * Return the length of the uncompressed wire format.
+     */
+    public int length() {
+        return wire.length;
+    }
+
+    /**
+     * Return the number of labels, not counting the root.
+     */
+    public int getLabelCount() {
+        return labelOffsets.length;
+    }
+
+    /**
+     * Return the n-th label, counting from the left.
+     */
+    public String getLabel(int n) {
+        int offset = labelOffsets[n] & 0xFF;
+        return DNSBuffer.bytesToString(wire, offset+1, wire[offset] & 0xFF);
+    }
+
+    /**
+     * Return the name without its leftmost label, or ROOT if this is
+     * a single-label name.
+     */
+    public DNSName getParent() {
+        if (labelOffsets.length <= 1) {
+            return ROOT;
+        }
+        int offset = labelOffsets[1] & 0xFF;
+        byte[] parent = new byte[wire.length - offset];
+        System.arraycopy(wire, offset, parent, 0, parent.length);
+        return new DNSName(parent);
+    }
+
+    /**
+     * Return true if this name equals the given name, or lies beneath
+     * it ("a._tcp.local" ends with "_tcp.local" but not "tcp.local").
+     * Every name ends with the root.
+     */
+    public boolean endsWith(DNSName suffix) {
+        if (suffix.wire.length == 1) {
+            return true;
+        }
+        int offset = wire.length - suffix.wire.length;
+        if (offset < 0) {
+            return false;
+        }
+        if (offset > 0) {
+            // the suffix must start on a label boundary
+            boolean boundary = false;
+            for (int i=0; i<labelOffsets.length; i++) {
+                if ((labelOffsets[i] & 0xFF) == offset) {
+                    boundary = true;
+                    break;
+                }
+            }
+            if (! boundary) {
+                return false;
+            }
+        }
+        return regionEquals(wire, offset, suffix.wire, 0, suffix.wire.length);
+    }
+
+    /**
+     * Write the uncompressed wire format into the buffer.
+     */
+    public void writeTo(DNSBuffer buffer) {
+        buffer.writeBytes(wire);
+    }
+
+    /**
+     * Return a copy of the uncompressed wire format.
+     */
+    public byte[] toWire() {
+        byte[] copy = new byte[wire.length];
+        System.arraycopy(wire, 0, copy, 0, wire.length);
+        return copy;
+    }
+
+    /**
+     * Return the wire format without copying, for use within the
+     * package.  It must not be modified.
+     */
+    byte[] getWire() {
+        return wire;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (other == this) {
+            return true;
+        }
+        if (! (other instanceof DNSName)) {
+            return false;
+        }
+        DNSName o = (DNSName)other;
+        return (hash == o.hash) && (wire.length == o.wire.length) &&
+            regionEquals(wire, 0, o.wire, 0, wire.length);
+    }
+
+    /**
+     * Return the dotted form of the name, as readName() would.
+     */
+    @Override
+    public String toString() {
+        String s = string;
+        if (s == null) {
+            StringBuilder sb = new StringBuilder(wire.length);
+            for (int i=0; i<labelOffsets.length; i++) {
+                if (i > 0) {
+                    sb.append('.');
+                }
+                int offset = labelOffsets[i] & 0xFF;
+                sb.append(DNSBuffer.bytesToString(wire, offset+1, wire[offset] & 0xFF));
+            }
+            s = string = sb.toString();
+        }
+        return s;
+    }
+
+    private static boolean regionEquals(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        for (int i=0; i<length; i++) {
+            if (toLower(a[aOffset+i]) != toLower(b[bOffset+i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte toLower(byte b) {
+        return ((b >= 'A') && (b <= 'Z')) ? (byte)(b + ('a' - 'A')) : b;
+    }
+
+}
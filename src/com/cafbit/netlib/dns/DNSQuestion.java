@@ -27,11 +27,21 @@ public class DNSQuestion extends DNSComponent {
     public String name;
     public boolean unicastResponse = false;
     
+    // the name as a DNSName, and the string it was derived from
+    private DNSName dnsName;
+    private String dnsNameSource;
+    
     public DNSQuestion(Type type, String name) {
         this.type = type;
         this.name = name;
     }
     
+    public DNSQuestion(Type type, DNSName name) {
+        this.type = type;
+        this.dnsName = name;
+        this.name = this.dnsNameSource = name.toString();
+    }
+    
     public DNSQuestion(DNSBuffer buffer) {
         parse(buffer);
     }
@@ -40,8 +50,8 @@ public class DNSQuestion extends DNSComponent {
      * Return the expected byte length of this question.
      */
     public int length() {
-        int length = DNSBuffer.nameByteLength(name);
-        length += 5; // zero-terminating length byte, qtype short, qclass short 
+        int length = getEncodedName().length;
+        length += 4; // qtype short, qclass short 
         return length;
     }
     
@@ -49,19 +59,37 @@ public class DNSQuestion extends DNSComponent {
      * Render this DNS question into a byte buffer
      */
     public void serialize(DNSBuffer buffer) {
-        buffer.checkRemaining(length());
-        buffer.writeName(name); // qname
+        byte[] encoded = getEncodedName();
+        buffer.checkRemaining(encoded.length + 4);
+        buffer.writeBytes(encoded); // qname
         buffer.writeShort(type.qtype); // qtype
         buffer.writeShort(1); // qclass (IN)
     }
+    
+    /**
+     * Return the name as a DNSName, deriving it again only when the
+     * name field has changed.
+     */
+    public DNSName getDNSName() {
+        if ((dnsName == null) || (dnsNameSource != name)) {
+            dnsName = DNSName.of(name);
+            dnsNameSource = name;
+        }
+        return dnsName;
+    }
+    
+    private byte[] getEncodedName() {
+        return getDNSName().getWire();
+    }
 
     /**
      * Parse a question from the byte buffer
      * @param buffer
      */
     private void parse(DNSBuffer buffer) {
-        name = buffer.readName();
-        type = Type.getType(buffer.readShort());
+        dnsName = buffer.readDNSName();
+        name = dnsNameSource = dnsName.toString();
+        type = Type.getType(buffer.readShortAsInt());
 
         // the most significant bit of the qclass is special
         // in Multicast DNS -- it is used as the "unicast response"
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cafbit.netlib.dns;
+
+/**
+ * Walk an entire DNS message once, checking every length, name, and
+ * compression pointer against the bounds of the packet, without
+ * decoding anything.  A message which passes validation can then be
+ * parsed with DNSBuffer's unchecked read methods.
+ * @author simmons
+ */
+final class DNSValidator {
+
+    private static final int HEADER_LENGTH = 12;
+    private static final int MAX_NAME_LENGTH = 255;
+
+    private DNSValidator() {}
+
+    /**
+     * Validate the message in the buffer.  On return, the buffer is
+     * reset to the start of the message.
+     * @throws DNSFormatException if the message is malformed
+     */
+    static void validate(DNSBuffer buffer) {
+        buffer.reset();
+        int end = buffer.start + buffer.length;
+        need(buffer, end, HEADER_LENGTH);
+
+        buffer.offset += 4; // id, flags
+        int qdcount = buffer.readShortAsInt();
+        int ancount = buffer.readShortAsInt();
+        int nscount = buffer.readShortAsInt();
+        int arcount = buffer.readShortAsInt();
+
+        // questions
+        for (int i=0; i<qdcount; i++) {
+            skipName(buffer, end);
+            need(buffer, end, 4); // qtype, qclass
+            buffer.offset += 4;
+        }
+
+        // resource records in the answer, authority, and additional sections
+        int rrcount = ancount + nscount + arcount;
+        for (int i=0; i<rrcount; i++) {
+            skipName(buffer, end);
+            need(buffer, end, 10); // type, class, ttl, rdlength
+            int type = buffer.readShortAsInt();
+            buffer.offset += 6; // class, ttl
+            int rdlength = buffer.readShortAsInt();
+            need(buffer, end, rdlength);
+            int rdataStart = buffer.offset;
+            int rdataEnd = rdataStart + rdlength;
+            validateRdata(buffer, end, type, rdataStart, rdataEnd);
+            buffer.offset = rdataEnd;
+        }
+
+        buffer.reset();
+    }
+
+    private static void validateRdata(DNSBuffer buffer, int end, int type, int rdataStart, int rdataEnd) {
+        int rdlength = rdataEnd - rdataStart;
+        if (type == DNSComponent.Type.A.qtype) {
+            if (rdlength != 4) {
+                throw error(buffer, rdataStart, "bad A rdata length");
+            }
+        } else if (type == DNSComponent.Type.AAAA.qtype) {
+            if (rdlength != 16) {
+                throw error(buffer, rdataStart, "bad AAAA rdata length");
+            }
+        } else if (type == DNSComponent.Type.PTR.qtype) {
+            buffer.offset = rdataStart;
+            skipName(buffer, end);
+            if (buffer.offset != rdataEnd) {
+                throw error(buffer, rdataStart, "bad PTR rdata");
+            }
+        } else if (type == DNSComponent.Type.SRV.qtype) {
+            if (rdlength < 7) {
+                throw error(buffer, rdataStart, "bad SRV rdata length");
+            }
+            buffer.offset = rdataStart + 6;
+            skipName(buffer, end);
+            if (buffer.offset != rdataEnd) {
+                throw error(buffer, rdataStart, "bad SRV rdata");
+            }
+        } else if (type == DNSComponent.Type.TXT.qtype) {
+            int i = rdataStart;
+            while (i < rdataEnd) {
+                i += 1 + buffer.peekByteAsInt(i);
+            }
+            if (i != rdataEnd) {
+                throw error(buffer, rdataStart, "bad TXT rdata");
+            }
+        }
+    }
+
+    /**
+     * Skip over a (possibly compressed) name, leaving the offset just
+     * past it.  Compression pointers must point strictly before the
+     * start of the run of labels containing them, which rules out
+     * loops.
+     */
+    private static void skipName(DNSBuffer buffer, int end) {
+        int pos = buffer.offset;
+        int segmentStart = pos;
+        int nameLength = 0;
+        boolean jumped = false;
+        while (true) {
+            if (pos >= end) {
+                throw error(buffer, pos, "name extends past end of packet");
+            }
+            int length = buffer.peekByteAsInt(pos);
+            int hiBits = (length >>> 6) & 0x03;
+            if (hiBits == 3) {
+                if ((pos + 2) > end) {
+                    throw error(buffer, pos, "truncated compression pointer");
+                }
+                int target = buffer.start + (((length & 0x3F) << 8) | buffer.peekByteAsInt(pos+1));
+                if (target >= segmentStart) {
+                    throw error(buffer, pos, "bad compression pointer");
+                }
+                if (! jumped) {
+                    buffer.offset = pos + 2;
+                    jumped = true;
+                }
+                pos = target;
+                segmentStart = target;
+            } else if (hiBits != 0) {
+                throw error(buffer, pos, "unknown label compression format");
+            } else if (length == 0) {
+                if (! jumped) {
+                    buffer.offset = pos + 1;
+                }
+                return;
+            } else {
+                nameLength += length + 1;
+                if (nameLength > MAX_NAME_LENGTH) {
+                    throw error(buffer, pos, "name too long");
+                }
+                pos += length + 1;
+            }
+        }
+    }
+
+    private static void need(DNSBuffer buffer, int end, int numBytes) {
+        if ((end - buffer.offset) < numBytes) {
+            throw error(buffer, buffer.offset, "truncated packet");
+        }
+    }
+
+    private static DNSFormatException error(DNSBuffer buffer, int pos, String message) {
+        return new DNSFormatException(message, pos - buffer.start);
+    }
+
+}
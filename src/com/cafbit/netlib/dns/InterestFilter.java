@@ -0,0 +1,163 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cafbit.netlib.dns;
+
+/**
+ * Decide whether a raw DNS packet is of interest, before it is parsed.
+ * Interest is registered as name patterns (see NameTrie) with the
+ * record types wanted for each.  A packet is interesting if any of its
+ * questions or resource records, in any section, has a matching name
+ * and type.  (A question of type ANY matches a pattern of any type.)
+ *
+ * The scan walks the packet's names in place, following compression
+ * pointers, and allocates nothing.  Packets which are too malformed to
+ * scan are reported as interesting, so that the parser sees them and
+ * reports the error in the usual way.
+ * @author simmons
+ */
+public class InterestFilter {
+
+    private static final int MAX_LABELS = 128;
+    private static final int ALL_TYPES = -1;
+
+    private final NameTrie trie = new NameTrie();
+
+    // scan state
+    private final int[] labelOffsets = new int[MAX_LABELS];
+    private int labelCount;
+
+    /**
+     * Register interest in names matching the pattern, which is either
+     * an exact name or a "*." wildcard followed by a suffix.  If no
+     * types (or ANY) are given, all types are of interest.
+     */
+    public synchronized void add(String pattern, DNSComponent.Type... types) {
+        int mask = 0;
+        for (DNSComponent.Type type : types) {
+            if (type == DNSComponent.Type.ANY) {
+                mask = ALL_TYPES;
+                break;
+            }
+            mask |= typeBit(type);
+        }
+        trie.add(pattern, (mask == 0) ? ALL_TYPES : mask);
+    }
+
+    public synchronized int size() {
+        return trie.size();
+    }
+
+    /**
+     * Return true if the DNS message in the given range of the packet
+     * contains any question or record of interest.
+     */
+    public synchronized boolean matches(byte[] packet, int offset, int length) {
+        int end = offset + length;
+        if (length < DNSHeader.LENGTH) {
+            return true;
+        }
+        int qdcount = readShort(packet, offset+4);
+        int rrcount = readShort(packet, offset+6) + readShort(packet, offset+8) + readShort(packet, offset+10);
+        int p = offset + DNSHeader.LENGTH;
+
+        // questions
+        for (int i=0; i<qdcount; i++) {
+            p = scanName(packet, offset, end, p);
+            if ((p < 0) || ((p + 4) > end)) {
+                return true;
+            }
+            int qtype = readShort(packet, p);
+            int mask = trie.match(packet, labelOffsets, labelCount);
+            if ((mask != 0) && ((qtype == DNSComponent.Type.ANY.qtype) || ((mask & typeBit(qtype)) != 0))) {
+                return true;
+            }
+            p += 4;
+        }
+
+        // resource records
+        for (int i=0; i<rrcount; i++) {
+            p = scanName(packet, offset, end, p);
+            if ((p < 0) || ((p + 10) > end)) {
+                return true;
+            }
+            int type = readShort(packet, p);
+            if ((trie.match(packet, labelOffsets, labelCount) & typeBit(type)) != 0) {
+                return true;
+            }
+            p += 10 + readShort(packet, p+8);
+        }
+        
+        // nothing of interest, unless the last record overran the packet
+        return p > end;
+    }
+
+    /**
+     * Record the label offsets of the name at p in labelOffsets, and
+     * return the offset just past the name (not past any pointer
+     * target), or -1 if the name is malformed.  As in the validator,
+     * each pointer must lead backwards from the segment containing it,
+     * so the walk always terminates.
+     */
+    private int scanName(byte[] packet, int start, int end, int p) {
+        labelCount = 0;
+        int next = -1;
+        int segmentStart = p;
+        while (true) {
+            if (p >= end) {
+                return -1;
+            }
+            int b = packet[p] & 0xFF;
+            if (b == 0) {
+                return (next < 0) ? p + 1 : next;
+            } else if ((b & 0xC0) == 0xC0) {
+                if ((p + 1) >= end) {
+                    return -1;
+                }
+                int target = start + (((b & 0x3F) << 8) | (packet[p+1] & 0xFF));
+                if (target >= segmentStart) {
+                    return -1;
+                }
+                if (next < 0) {
+                    next = p + 2;
+                }
+                p = segmentStart = target;
+            } else if ((b & 0xC0) != 0) {
+                return -1;
+            } else {
+                if ((labelCount == MAX_LABELS) || ((p + 1 + b) > end)) {
+                    return -1;
+                }
+                labelOffsets[labelCount++] = p;
+                p += 1 + b;
+            }
+        }
+    }
+
+    private static int typeBit(int qtype) {
+        return typeBit(DNSComponent.Type.getType(qtype));
+    }
+
+    private static int typeBit(DNSComponent.Type type) {
+        return 1 << type.ordinal();
+    }
+
+    private static int readShort(byte[] packet, int offset) {
+        return ((packet[offset] & 0xFF) << 8) | (packet[offset+1] & 0xFF);
+    }
+
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cafbit.netlib.dns;
+
+/**
+ * A trie of domain name patterns, keyed by label from the root down
+ * (i.e. "local", then "_tcp", then "_ipp"), so that names sharing a
+ * suffix share a path.  Each pattern carries an int mask, and matching
+ * a name returns the union of the masks of all patterns it matches.
+ *
+ * A pattern is either an exact name ("printer.local") or a wildcard
+ * ("*._ipp._tcp.local"), which matches any name with at least one
+ * label in front of the suffix.  Labels are compared without regard
+ * to ASCII case.
+ *
+ * Names are matched directly against their wire format, given the
+ * offsets of their labels, so no strings are created.
+ * @author simmons
+ */
+public class NameTrie {
+
+    private static class Node {
+        byte[][] labels = new byte[2][];
+        Node[] children = new Node[2];
+        int count = 0;
+        int exactMask = 0;
+        int wildcardMask = 0;
+
+        Node find(byte[] packet, int labelOffset) {
+            int length = packet[labelOffset] & 0xFF;
+            for (int i=0; i<count; i++) {
+                byte[] label = labels[i];
+                if ((label.length == length) && labelEquals(label, packet, labelOffset+1)) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        Node findOrAdd(byte[] label) {
+            for (int i=0; i<count; i++) {
+                if ((labels[i].length == label.length) && labelEquals(labels[i], label, 0)) {
+                    return children[i];
+                }
+            }
+            if (count == labels.length) {
+                byte[][] newLabels = new byte[count*2][];
+                Node[] newChildren = new Node[count*2];
+                System.arraycopy(labels, 0, newLabels, 0, count);
+                System.arraycopy(children, 0, newChildren, 0, count);
+                labels = newLabels;
+                children = newChildren;
+            }
+            Node child = new Node();
+            labels[count] = label;
+            children[count] = child;
+            count++;
+            return child;
+        }
+    }
+
+    private final Node root = new Node();
+    private int size = 0;
+
+    /**
+     * Add a pattern with the given mask.  Adding the same pattern
+     * again adds to its mask.
+     */
+    public void add(String pattern, int mask) {
+        boolean wildcard = false;
+        if (pattern.startsWith("*.")) {
+            wildcard = true;
+            pattern = pattern.substring(2);
+        } else if (pattern.equals("*")) {
+            wildcard = true;
+            pattern = "";
+        }
+        byte[] encoded = DNSBuffer.encodeName(pattern);
+
+        // collect the label offsets, then insert from the last label
+        int[] offsets = new int[encoded.length];
+        int labelCount = 0;
+        for (int i=0; encoded[i] != 0; i += (encoded[i] & 0xFF) + 1) {
+            offsets[labelCount++] = i;
+        }
+        Node node = root;
+        for (int i=labelCount-1; i>=0; i--) {
+            int length = encoded[offsets[i]] & 0xFF;
+            byte[] label = new byte[length];
+            for (int j=0; j<length; j++) {
+                label[j] = toLower(encoded[offsets[i]+1+j]);
+            }
+            node = node.findOrAdd(label);
+        }
+        if (wildcard) {
+            node.wildcardMask |= mask;
+        } else {
+            node.exactMask |= mask;
+        }
+        size++;
+    }
+
+    /**
+     * Return the number of patterns added.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Match a name in wire format.
+     * @param packet the packet holding the name's labels
+     * @param labelOffsets the offset of each label's length byte,
+     *        in order from the first (leftmost) label
+     * @param labelCount the number of labels, excluding the root
+     * @return the union of the masks of all matching patterns
+     */
+    public int match(byte[] packet, int[] labelOffsets, int labelCount) {
+        int mask = 0;
+        Node node = root;
+        for (int i=labelCount-1; i>=0; i--) {
+            // at least one label remains, so wildcards at this node match
+            mask |= node.wildcardMask;
+            node = node.find(packet, labelOffsets[i]);
+            if (node == null) {
+                return mask;
+            }
+        }
+        return mask | node.exactMask;
+    }
+
+    private static boolean labelEquals(byte[] label, byte[] other, int otherOffset) {
+        for (int i=0; i<label.length; i++) {
+            if (label[i] != toLower(other[otherOffset+i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte toLower(byte b) {
+        return ((b >= 'A') && (b <= 'Z')) ? (byte)(b + ('a' - 'A')) : b;
+    }
+
+}
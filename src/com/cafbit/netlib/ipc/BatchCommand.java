@@ -0,0 +1,40 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cafbit.netlib.ipc;
+
+import java.util.List;
+
+/**
+ * Several commands delivered in a single handler message, so that a
+ * burst of events wakes the receiving thread once instead of once per
+ * event.  The commands are in the order they were produced.
+ * @author simmons
+ */
+public class BatchCommand implements Command {
+
+    private List<Command> commands;
+
+    public BatchCommand(List<Command> commands) {
+        this.commands = commands;
+    }
+
+    public List<Command> getCommands() {
+        return commands;
+    }
+
+}
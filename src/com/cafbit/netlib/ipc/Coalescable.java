@@ -0,0 +1,41 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cafbit.netlib.ipc;
+
+/**
+ * A command which may be merged with an earlier, still undelivered
+ * command about the same thing, so that a batch carries only the net
+ * effect.
+ * @author simmons
+ */
+public interface Coalescable extends Command {
+
+    /**
+     * Return a key identifying what this command is about.  Commands
+     * with equal keys are coalesced.
+     */
+    public Object getCoalesceKey();
+
+    /**
+     * Merge this command with an earlier command having the same key,
+     * and return the command to deliver in place of both, or null if
+     * they cancel out.
+     */
+    public Command coalesce(Command earlier);
+
+}
@@ -25,11 +25,13 @@ public class DatagramCommand implements Command {
     private Thread thread;
     private DatagramSocket socket;
     private DatagramPacket datagramPacket;
+    private long timestamp;
 
     public DatagramCommand(Thread thread, DatagramSocket socket, DatagramPacket datagramPacket) {
         this.thread = thread;
         this.socket = socket;
         this.datagramPacket = datagramPacket;
+        this.timestamp = System.nanoTime();
     }
     
     public Thread getThread() {
@@ -44,4 +46,11 @@ public class DatagramCommand implements Command {
         return datagramPacket;
     }
 
+    /**
+     * Return the System.nanoTime() at which this command was created.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
 }
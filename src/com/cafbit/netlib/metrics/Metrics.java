@@ -0,0 +1,187 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cafbit.netlib.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.cafbit.netlib.dns.DNSComponent;
+
+/**
+ * A registry of counters and histograms describing the packet
+ * pipeline.  The standard pipeline metrics are exposed as fields, so
+ * the receive path can update them without any lookup; additional
+ * metrics may be registered by name.
+ *
+ * All histograms record durations in nanoseconds.
+ * @author simmons
+ */
+public class Metrics {
+
+    private final Map<String,Counter> counters = new LinkedHashMap<String,Counter>();
+    private final Map<String,Histogram> histograms = new LinkedHashMap<String,Histogram>();
+
+    // packet counts
+    public final Counter packetsReceived = counter("packets.received");
+    public final Counter packetsSent = counter("packets.sent");
+    public final Counter packetsDropped = counter("packets.dropped");
+    public final Counter parseErrors = counter("errors.parse");
+    public final Counter handlerErrors = counter("errors.handler");
+
+    // pipeline latencies
+    /** time from the return of receive() until the packet is handed off */
+    public final Histogram receiveTime = histogram("time.receive");
+    /** time spent parsing a packet */
+    public final Histogram parseTime = histogram("time.parse");
+    /** time a command spends in the manager thread's queue */
+    public final Histogram queueWaitTime = histogram("time.queue-wait");
+    /** time spent in the manager's handler for an incoming packet */
+    public final Histogram handleTime = histogram("time.handle");
+
+    // record counts, indexed by DNSComponent.Type ordinal
+    private final Counter[] recordTypes;
+
+    public Metrics() {
+        DNSComponent.Type[] types = DNSComponent.Type.values();
+        recordTypes = new Counter[types.length];
+        for (int i=0; i<types.length; i++) {
+            recordTypes[i] = counter("records."+types[i].name());
+        }
+    }
+
+    /**
+     * Return the named counter, creating it if necessary.
+     */
+    public synchronized Counter counter(String name) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            counter = new Counter(name);
+            counters.put(name, counter);
+        }
+        return counter;
+    }
+
+    /**
+     * Return the named histogram, creating it if necessary.
+     */
+    public synchronized Histogram histogram(String name) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            histogram = new Histogram(name);
+            histograms.put(name, histogram);
+        }
+        return histogram;
+    }
+
+    public void countRecord(DNSComponent.Type type) {
+        recordTypes[type.ordinal()].increment();
+    }
+
+    public Counter getRecordCounter(DNSComponent.Type type) {
+        return recordTypes[type.ordinal()];
+    }
+
+    /**
+     * Copy the current counter values into the supplied array, in
+     * registration order (see getCounterNames()), and return the number
+     * of values written.  This allows periodic export into a reused
+     * array.
+     */
+    public synchronized int copyCounters(long[] target) {
+        int i = 0;
+        for (Counter counter : counters.values()) {
+            if (i == target.length) {
+                break;
+            }
+            target[i++] = counter.get();
+        }
+        return i;
+    }
+
+    public synchronized List<String> getCounterNames() {
+        return new ArrayList<String>(counters.keySet());
+    }
+
+    public synchronized Snapshot snapshot() {
+        Map<String,Long> counterValues = new LinkedHashMap<String,Long>();
+        for (Counter counter : counters.values()) {
+            counterValues.put(counter.getName(), counter.get());
+        }
+        Map<String,Histogram.Snapshot> histogramValues = new LinkedHashMap<String,Histogram.Snapshot>();
+        for (Histogram histogram : histograms.values()) {
+            histogramValues.put(histogram.getName(), histogram.snapshot());
+        }
+        return new Snapshot(counterValues, histogramValues);
+    }
+
+    public synchronized void reset() {
+        for (Counter counter : counters.values()) {
+            counter.reset();
+        }
+        for (Histogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * An immutable point-in-time copy of all metrics.
+     */
+    public static class Snapshot {
+        private final Map<String,Long> counters;
+        private final Map<String,Histogram.Snapshot> histograms;
+
+        public Snapshot(Map<String,Long> counters, Map<String,Histogram.Snapshot> histograms) {
+            this.counters = Collections.unmodifiableMap(counters);
+            this.histograms = Collections.unmodifiableMap(histograms);
+        }
+
+        public Map<String,Long> getCounters() {
+            return counters;
+        }
+
+        public Map<String,Histogram.Snapshot> getHistograms() {
+            return histograms;
+        }
+
+        public long getCounter(String name) {
+            Long value = counters.get(name);
+            return (value == null) ? 0 : value;
+        }
+
+        public Histogram.Snapshot getHistogram(String name) {
+            return histograms.get(name);
+        }
+
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<String,Long> entry : counters.entrySet()) {
+                if (entry.getValue() != 0) {
+                    sb.append(entry.getKey()+"="+entry.getValue()+"\n");
+                }
+            }
+            for (Histogram.Snapshot h : histograms.values()) {
+                sb.append(h.toString()+"\n");
+            }
+            return sb.toString();
+        }
+    }
+
+}